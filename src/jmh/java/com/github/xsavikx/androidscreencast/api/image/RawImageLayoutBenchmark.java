@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package com.github.xsavikx.androidscreencast.api.image;
+
+import com.android.ddmlib.RawImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Converts a full HD framebuffer with the kernel of every {@link RawImageLayout}. {@link RawImageLayout#GENERIC_32} is the shift and mask
+ * conversion every 32 bit layout would take without a kernel of its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RawImageLayoutBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Param({"RGBA_8888", "BGRA_8888", "RGB_565", "GENERIC_32"})
+    public String layoutName;
+
+    private RawImageLayout layout;
+    private RawImage rawImage;
+    private int[] pixels;
+
+    @Setup
+    public void setUp() {
+        layout = RawImageLayout.valueOf(layoutName);
+        rawImage = new RawImage();
+        rawImage.version = 1;
+        rawImage.width = WIDTH;
+        rawImage.height = HEIGHT;
+        switch (layout) {
+            case RGBA_8888:
+                setChannels(32, 0, 8, 16, 24);
+                break;
+            case BGRA_8888:
+                setChannels(32, 16, 8, 0, 24);
+                break;
+            case RGB_565:
+                setChannels(16, 11, 5, 0, 0);
+                rawImage.red_length = 5;
+                rawImage.green_length = 6;
+                rawImage.blue_length = 5;
+                rawImage.alpha_length = 0;
+                break;
+            default:
+                // ARGB in memory, which none of the dedicated kernels handles
+                setChannels(32, 8, 16, 24, 0);
+                break;
+        }
+        checkState(RawImageLayout.of(rawImage) == layout, "Raw image is detected as %s instead of %s", RawImageLayout.of(rawImage), layout);
+        rawImage.size = WIDTH * HEIGHT * rawImage.bpp / 8;
+        rawImage.data = new byte[rawImage.size];
+        new Random(1).nextBytes(rawImage.data);
+        pixels = new int[WIDTH * HEIGHT];
+    }
+
+    private void setChannels(int bpp, int redOffset, int greenOffset, int blueOffset, int alphaOffset) {
+        rawImage.bpp = bpp;
+        rawImage.red_offset = redOffset;
+        rawImage.red_length = 8;
+        rawImage.green_offset = greenOffset;
+        rawImage.green_length = 8;
+        rawImage.blue_offset = blueOffset;
+        rawImage.blue_length = 8;
+        rawImage.alpha_offset = alphaOffset;
+        rawImage.alpha_length = 8;
+    }
+
+    @Benchmark
+    public int[] convert() {
+        layout.convert(rawImage, 0, WIDTH * HEIGHT, pixels, 0);
+        return pixels;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a full HD frame with a {@link FrameEncoder} reused across frames, and the way frames were encoded before: a writer looked up in the
+ * registry, set up and disposed of for every frame, writing through a new {@link MemoryCacheImageOutputStream}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FrameEncoderBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final float QUALITY = 0.9f;
+
+    @Param({"JPG", "PNG"})
+    public QuickTimeOutputStream.VideoFormat format;
+
+    private BufferedImage image;
+    private FrameEncoder encoder;
+    private ByteArrayImageOutputStream target;
+
+    @Setup
+    public void setUp() {
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        // flat areas with some detail, as on a phone screen
+        final Random random = new Random(1);
+        final Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            for (int y = 0; y < HEIGHT; y += 120) {
+                g.setColor(new Color(random.nextInt(0xffffff)));
+                g.fillRect(40, y + 20, WIDTH - 80, 80);
+                g.setColor(Color.BLACK);
+                g.drawString("Item " + y + " " + Long.toHexString(random.nextLong()), 60, y + 65);
+            }
+        } finally {
+            g.dispose();
+        }
+        encoder = new FrameEncoder(format);
+        target = new ByteArrayImageOutputStream();
+    }
+
+    @Benchmark
+    public ByteArrayImageOutputStream reusedEncoder() throws IOException {
+        encoder.encode(image, QUALITY, target);
+        return target;
+    }
+
+    @Benchmark
+    public byte[] writerPerFrame() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ImageWriter writer = ImageIO.getImageWritersByMIMEType(format == QuickTimeOutputStream.VideoFormat.JPG ? "image/jpeg" : "image/png")
+                .next();
+        final ImageWriteParam writeParam = writer.getDefaultWriteParam();
+        if (format == QuickTimeOutputStream.VideoFormat.JPG) {
+            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParam.setCompressionQuality(QUALITY);
+        }
+        final MemoryCacheImageOutputStream imageOutput = new MemoryCacheImageOutputStream(output);
+        writer.setOutput(imageOutput);
+        writer.write(null, new IIOImage(image, null, null), writeParam);
+        writer.dispose();
+        imageOutput.flush();
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a movie of many small samples, so that the time goes into the media data bookkeeping and the sample tables of the movie atom rather
+ * than into the media data itself. {@link #writeTables(Stream)} isolates the way atoms are written, field by field, and compares
+ * {@link ChannelImageOutputStream} with the unbuffered {@link FileImageOutputStream} movies used to be written through.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class MovieWriteBenchmark {
+
+    private static final byte[] SAMPLE = new byte[64];
+    /**
+     * Fields per sample in the sample tables: its size, its offset and its duration.
+     */
+    private static final int FIELDS_PER_SAMPLE = 3;
+
+    @Param({"10000", "100000"})
+    public int sampleCount;
+
+    private File file;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        file = File.createTempFile("movie-benchmark", ".mov");
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Writes and closes a whole movie, which always goes through {@link ChannelImageOutputStream}.
+     */
+    @Benchmark
+    public long writeMovie() {
+        final QuickTimeOutputStream movie;
+        try {
+            movie = new QuickTimeOutputStream(file, QuickTimeOutputStream.VideoFormat.PNG);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        movie.setVideoDimension(1080, 1920);
+        for (int i = 0; i < sampleCount; i++) {
+            movie.writeSample(SAMPLE, 0, SAMPLE.length, 1, true);
+        }
+        movie.close();
+        return file.length();
+    }
+
+    /**
+     * Writes sample table sized data byte by byte, the way the atom output streams used to hand it to the file.
+     */
+    @Benchmark
+    public long writeTables(final Stream stream) throws IOException {
+        try (ImageOutputStream out = "channel".equals(stream.type) ? new ChannelImageOutputStream(file) : new FileImageOutputStream(file)) {
+            for (int i = 0; i < sampleCount * FIELDS_PER_SAMPLE; i++) {
+                out.write(i >>> 24);
+                out.write(i >>> 16);
+                out.write(i >>> 8);
+                out.write(i);
+            }
+            return out.getStreamPosition();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Stream {
+
+        @Param({"channel", "file"})
+        public String type;
+    }
+}
@@ -17,8 +17,8 @@
 
 package com.github.xsavikx.androidscreencast.api;
 
-import com.android.ddmlib.IDevice;
 import com.android.ddmlib.SyncService;
+import com.github.xsavikx.androidscreencast.api.adb.DeviceCommandScheduler;
 import com.github.xsavikx.androidscreencast.api.file.FileInfo;
 import com.github.xsavikx.androidscreencast.api.injector.OutputStreamShellOutputReceiver;
 import com.github.xsavikx.androidscreencast.exception.AndroidScreenCastRuntimeException;
@@ -33,23 +33,27 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.github.xsavikx.androidscreencast.api.adb.DeviceCommandScheduler.Lane.SYNC;
 import static org.slf4j.LoggerFactory.getLogger;
 
 @Singleton
 public final class AndroidDeviceImpl implements AndroidDevice {
 
-    private final IDevice device;
+    private final DeviceCommandScheduler scheduler;
 
     @Inject
-    public AndroidDeviceImpl(final IDevice device) {
-        this.device = device;
+    public AndroidDeviceImpl(final DeviceCommandScheduler scheduler) {
+        this.scheduler = scheduler;
     }
 
     @Override
     public String executeCommand(final String cmd) {
         log().debug("Executing command: `{}`.", cmd);
         try (final ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            device.executeShellCommand(cmd, new OutputStreamShellOutputReceiver(bos));
+            scheduler.execute(SYNC, device -> {
+                device.executeShellCommand(cmd, new OutputStreamShellOutputReceiver(bos));
+                return null;
+            });
             final String result = new String(bos.toByteArray(), StandardCharsets.UTF_8);
             log().debug("Command `{}` executed with result: `{}`.", cmd, result);
             return result;
@@ -102,9 +106,13 @@ public final class AndroidDeviceImpl implements AndroidDevice {
         log().debug("Pulling remote file `{}` to the local destination: `{}`.", remote, local);
         // ugly hack to call the method without FileEntry
         try {
-            if (device.getSyncService() == null)
-                throw new AndroidScreenCastRuntimeException("SyncService is null, ADB crashed ?");
-            device.getSyncService().pullFile(remote, local.getAbsolutePath(), SyncService.getNullProgressMonitor());
+            scheduler.execute(SYNC, device -> {
+                final SyncService syncService = device.getSyncService();
+                if (syncService == null)
+                    throw new AndroidScreenCastRuntimeException("SyncService is null, ADB crashed ?");
+                syncService.pullFile(remote, local.getAbsolutePath(), SyncService.getNullProgressMonitor());
+                return null;
+            });
             log().debug("Remote file `{}` pulled to the local destination: `{}`.", remote, local);
         } catch (final Exception ex) {
             log().error("Unable to pull remote file `{}` to the local destination: `{}`.", remote, local, ex);
@@ -116,9 +124,13 @@ public final class AndroidDeviceImpl implements AndroidDevice {
     public void pushFile(final File local, final String remote) {
         log().debug("Pushing local file `{}` to the remote destination: `{}`.", local, remote);
         try {
-            if (device.getSyncService() == null)
-                throw new AndroidScreenCastRuntimeException("SyncService is null, ADB crashed ?");
-            device.getSyncService().pushFile(local.getAbsolutePath(), remote, SyncService.getNullProgressMonitor());
+            scheduler.execute(SYNC, device -> {
+                final SyncService syncService = device.getSyncService();
+                if (syncService == null)
+                    throw new AndroidScreenCastRuntimeException("SyncService is null, ADB crashed ?");
+                syncService.pushFile(local.getAbsolutePath(), remote, SyncService.getNullProgressMonitor());
+                return null;
+            });
             log().debug("Local file `{}` pushed to the remote destination: `{}`.", local, remote);
         } catch (final Exception ex) {
             log().error("Unable to push local file `{}` to the remote destination: `{}`.", local, remote, ex);
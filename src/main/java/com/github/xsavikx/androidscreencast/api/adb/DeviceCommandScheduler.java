@@ -0,0 +1,287 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.adb;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.TimeoutException;
+import org.slf4j.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Owns all ADB traffic of a single {@link IDevice}.
+ * <p>
+ * Commands are grouped into {@link Lane lanes}. Every lane is served by its own worker thread, so commands within a lane are executed in submission
+ * order, while lanes never wait for each other: a tap does not queue behind a framebuffer pull and a screenshot does not queue behind a long file
+ * push. Queue depth and wait time are tracked per lane, see {@link #getStatistics(Lane)}.
+ */
+@Singleton
+public final class DeviceCommandScheduler {
+
+    private final IDevice device;
+    private final Map<Lane, LaneExecutor> lanes;
+
+    @Inject
+    public DeviceCommandScheduler(final IDevice device) {
+        this.device = device;
+        this.lanes = new EnumMap<>(Lane.class);
+        for (final Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneExecutor(lane));
+        }
+    }
+
+    /**
+     * Executes the command on the worker thread of the given lane and waits for its result.
+     *
+     * @param lane    lane to schedule the command on
+     * @param command command to execute
+     * @param <T>     type of the command result
+     * @return the command result
+     * @throws InterruptedException if the calling thread was interrupted while waiting. The command is cancelled if it has not started yet.
+     */
+    public <T> T execute(final Lane lane, final DeviceCommand<T> command)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException, InterruptedException {
+        checkNotNull(lane, "Lane should not be null.");
+        checkNotNull(command, "Command should not be null.");
+        final Future<T> future = lanes.get(lane).submit(command);
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (final ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Returns a snapshot of the statistics collected for the given lane.
+     *
+     * @param lane lane to get statistics for
+     * @return lane statistics
+     */
+    public LaneStatistics getStatistics(final Lane lane) {
+        return lanes.get(lane).statistics();
+    }
+
+    /**
+     * Stops all lane workers. Commands which are still queued are discarded.
+     */
+    public void stop() {
+        for (final LaneExecutor executor : lanes.values()) {
+            executor.shutdown();
+        }
+    }
+
+    private static RuntimeException rethrow(final Throwable cause)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException {
+        if (cause instanceof TimeoutException) {
+            throw (TimeoutException) cause;
+        }
+        if (cause instanceof AdbCommandRejectedException) {
+            throw (AdbCommandRejectedException) cause;
+        }
+        if (cause instanceof ShellCommandUnresponsiveException) {
+            throw (ShellCommandUnresponsiveException) cause;
+        }
+        if (cause instanceof SyncException) {
+            throw (SyncException) cause;
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException("Unexpected device command failure.", cause);
+    }
+
+    /**
+     * Traffic classes of the device, ordered by priority.
+     */
+    public enum Lane {
+        /**
+         * Input injection: taps, swipes and key events. Latency sensitive, cheap.
+         */
+        INPUT(Thread.MAX_PRIORITY),
+        /**
+         * Screen frames. Large transfers issued back to back.
+         */
+        FRAME(Thread.NORM_PRIORITY),
+        /**
+         * File sync and other bulk or interactive shell traffic.
+         */
+        SYNC(Thread.MIN_PRIORITY),
+        /**
+         * Long-running commands streaming their output back, e.g. the screen recorder. Such a command keeps its lane busy until it ends.
+         */
+        STREAM(Thread.NORM_PRIORITY);
+
+        private final int threadPriority;
+
+        Lane(final int threadPriority) {
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    /**
+     * A single ADB interaction with the device.
+     *
+     * @param <T> type of the command result
+     */
+    @FunctionalInterface
+    public interface DeviceCommand<T> {
+        T execute(IDevice device)
+                throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException;
+    }
+
+    /**
+     * Immutable snapshot of the statistics of a single lane.
+     */
+    public static final class LaneStatistics {
+
+        private final Lane lane;
+        private final int queueDepth;
+        private final long executedCommands;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        LaneStatistics(Lane lane, int queueDepth, long executedCommands, long totalWaitNanos, long maxWaitNanos) {
+            this.lane = lane;
+            this.queueDepth = queueDepth;
+            this.executedCommands = executedCommands;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        /**
+         * @return number of commands submitted to the lane which have not started yet
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getExecutedCommands() {
+            return executedCommands;
+        }
+
+        /**
+         * @return average time commands spent in the lane queue before their execution started
+         */
+        public long getAverageWaitNanos() {
+            return executedCommands == 0 ? 0 : totalWaitNanos / executedCommands;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "LaneStatistics{" +
+                    "lane=" + lane +
+                    ", queueDepth=" + queueDepth +
+                    ", executedCommands=" + executedCommands +
+                    ", averageWaitMillis=" + TimeUnit.NANOSECONDS.toMillis(getAverageWaitNanos()) +
+                    ", maxWaitMillis=" + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) +
+                    '}';
+        }
+    }
+
+    private final class LaneExecutor {
+
+        private final Lane lane;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong executedCommands = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        LaneExecutor(final Lane lane) {
+            this.lane = lane;
+            this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                final Thread thread = new Thread(runnable, "ADB " + lane.name().toLowerCase() + " lane");
+                thread.setDaemon(true);
+                thread.setPriority(lane.threadPriority);
+                return thread;
+            });
+        }
+
+        <T> Future<T> submit(final DeviceCommand<T> command) {
+            final long submitted = System.nanoTime();
+            return executor.submit(() -> {
+                recordWait(System.nanoTime() - submitted);
+                return command.execute(device);
+            });
+        }
+
+        private void recordWait(final long waitNanos) {
+            executedCommands.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            long max;
+            while (waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+                // retry until the maximum is updated or a bigger value is observed
+            }
+            if (log().isTraceEnabled()) {
+                log().trace("Command waited {} us in {} lane.", TimeUnit.NANOSECONDS.toMicros(waitNanos), lane);
+            }
+        }
+
+        LaneStatistics statistics() {
+            return new LaneStatistics(lane, executor.getQueue().size(), executedCommands.get(), totalWaitNanos.get(), maxWaitNanos.get());
+        }
+
+        void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(DeviceCommandScheduler.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
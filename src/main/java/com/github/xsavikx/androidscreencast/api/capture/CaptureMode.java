@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+/**
+ * Ways of pulling screen frames from the device.
+ */
+public enum CaptureMode {
+    /**
+     * Benchmarks the other modes once the device is connected and keeps the fastest one.
+     */
+    AUTO,
+    /**
+     * Raw framebuffer pulled through the ADB framebuffer service.
+     */
+    FRAMEBUFFER,
+    /**
+     * Raw output of the on-device {@code screencap} tool.
+     */
+    SCREENCAP,
+    /**
+     * Output of {@code screencap} compressed by {@code gzip} on the device and inflated on the fly by the host.
+     */
+    SCREENCAP_GZIP,
+    /**
+     * PNG image encoded by {@code screencap -p}.
+     */
+    SCREENCAP_PNG
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+/**
+ * Source of an encoded video stream of the device screen, e.g. an H.264 Annex B elementary stream. Unlike {@link FrameSource} the data is
+ * pushed to the listener as it arrives, in chunks unrelated to frame boundaries.
+ */
+public interface EncodedStreamSource {
+
+    /**
+     * Starts streaming on a thread of the source's own.
+     *
+     * @param listener receives the stream
+     * @throws IllegalStateException if the source is streaming already
+     */
+    void start(EncodedStreamListener listener);
+
+    /**
+     * Stops streaming. The listener is notified about the end of the stream.
+     */
+    void stop();
+
+    interface EncodedStreamListener {
+        /**
+         * Receives the next chunk of the stream. The array is reused once the method returns.
+         */
+        void onData(byte[] data, int offset, int length);
+
+        /**
+         * Called once the stream has ended, whether it was stopped or the source ran dry.
+         */
+        void onEndOfStream();
+    }
+}
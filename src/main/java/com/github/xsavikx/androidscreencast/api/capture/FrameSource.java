@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.RawImage;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.TimeoutException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of uncompressed device screen frames pulled by the screen capture pipeline one at a time.
+ */
+public interface FrameSource {
+
+    /**
+     * Fetches the current content of the device screen.
+     *
+     * @param timeout maximum time to wait for the frame
+     * @param unit    unit of the timeout
+     * @return the frame, or {@code null} if the device did not provide one
+     */
+    RawImage fetchFrame(long timeout, TimeUnit unit)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException, InterruptedException;
+
+    /**
+     * Keeps the source from writing later frames into the pixel data of the given frame until it is {@link #unpin(RawImage) unpinned}, for
+     * consumers holding on to a frame after the pipeline is done with it. Sources allocating new pixel data for every frame do not need to track
+     * pins.
+     *
+     * @param frame frame fetched from this source
+     */
+    default void pin(RawImage frame) {
+    }
+
+    /**
+     * Allows the source to reuse the pixel data of a frame {@link #pin(RawImage) pinned} before.
+     *
+     * @param frame frame fetched from this source
+     */
+    default void unpin(RawImage frame) {
+    }
+}
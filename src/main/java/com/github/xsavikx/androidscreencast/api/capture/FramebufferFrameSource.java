@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.RawImage;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.TimeoutException;
+import com.github.xsavikx.androidscreencast.api.adb.DeviceCommandScheduler;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls the raw framebuffer through the ADB framebuffer service.
+ */
+@Singleton
+public final class FramebufferFrameSource implements FrameSource {
+
+    private final DeviceCommandScheduler scheduler;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private volatile long lastHostCpuNanos;
+
+    @Inject
+    public FramebufferFrameSource(final DeviceCommandScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public RawImage fetchFrame(final long timeout, final TimeUnit unit)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException, InterruptedException {
+        return scheduler.execute(DeviceCommandScheduler.Lane.FRAME, device -> {
+            final long cpuStart = currentThreadCpuTime();
+            final RawImage rawImage = device.getScreenshot(timeout, unit);
+            lastHostCpuNanos = currentThreadCpuTime() - cpuStart;
+            return rawImage;
+        });
+    }
+
+    /**
+     * @return host CPU time spent on receiving the last frame, or 0 if the JVM does not measure thread CPU time
+     */
+    public long getLastHostCpuNanos() {
+        return lastHostCpuNanos;
+    }
+
+    private long currentThreadCpuTime() {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+}
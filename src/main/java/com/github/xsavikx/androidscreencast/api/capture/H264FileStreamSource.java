@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Replays a recorded H.264 Annex B file as if it was streamed by the device, e.g. to exercise stream consumers without a device attached.
+ */
+public final class H264FileStreamSource implements EncodedStreamSource {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private final File file;
+    private final long bytesPerSecond;
+    private volatile boolean isStopped = true;
+    private Thread replayThread;
+
+    /**
+     * @param file           file holding the stream
+     * @param bytesPerSecond rate the stream is replayed at, or 0 to replay it as fast as the listener consumes it
+     */
+    public H264FileStreamSource(final File file, final long bytesPerSecond) {
+        checkArgument(bytesPerSecond >= 0, "Replay rate should not be negative, but was %s", bytesPerSecond);
+        this.file = checkNotNull(file, "file");
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public synchronized void start(final EncodedStreamListener listener) {
+        checkState(replayThread == null, "H.264 file replay is running already.");
+        isStopped = false;
+        replayThread = new Thread(() -> replay(listener), "H.264 File Replay");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (replayThread == null) {
+            return;
+        }
+        isStopped = true;
+        replayThread.interrupt();
+        replayThread = null;
+    }
+
+    private void replay(final EncodedStreamListener listener) {
+        log().info("Replaying H.264 stream from file: {}.", file);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        final long startTime = System.nanoTime();
+        long replayed = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while (!isStopped && (read = in.read(chunk)) != -1) {
+                listener.onData(chunk, 0, read);
+                replayed += read;
+                if (bytesPerSecond > 0) {
+                    final long due = startTime + TimeUnit.SECONDS.toNanos(1) * replayed / bytesPerSecond;
+                    TimeUnit.NANOSECONDS.sleep(due - System.nanoTime());
+                }
+            }
+        } catch (final IOException e) {
+            log().error("Failed to replay H.264 stream from file: {}.", file, e);
+        } catch (final InterruptedException e) {
+            log().debug("H.264 file replay was interrupted.", e);
+        } finally {
+            listener.onEndOfStream();
+        }
+        log().info("Finished replaying {} bytes of H.264 stream.", replayed);
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(H264FileStreamSource.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
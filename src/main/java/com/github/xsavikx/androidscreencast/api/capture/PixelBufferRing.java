@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Fixed ring of pixel buffers which {@code screencap} frames are decoded into.
+ * <p>
+ * A buffer is handed out again only after the whole ring went round, so the ring has to be larger than the number of frames the capture pipeline
+ * keeps alive at once. Consumers holding on to a frame for longer pin its buffer, which is skipped until it is unpinned; if every buffer is pinned
+ * a new one is allocated outside of the ring. Buffers are reallocated when the frame size changes.
+ */
+final class PixelBufferRing {
+
+    private final byte[][] buffers;
+    private final Set<byte[]> pinned = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int next;
+
+    PixelBufferRing(int size) {
+        this.buffers = new byte[size][];
+    }
+
+    synchronized byte[] lease(int length) {
+        for (int i = 0; i < buffers.length; i++) {
+            final int slot = next;
+            next = (next + 1) % buffers.length;
+            byte[] buffer = buffers[slot];
+            if (buffer != null && pinned.contains(buffer)) {
+                continue;
+            }
+            if (buffer == null || buffer.length != length) {
+                buffer = new byte[length];
+                buffers[slot] = buffer;
+            }
+            return buffer;
+        }
+        return new byte[length];
+    }
+
+    synchronized void pin(byte[] buffer) {
+        pinned.add(buffer);
+    }
+
+    synchronized void unpin(byte[] buffer) {
+        pinned.remove(buffer);
+    }
+}
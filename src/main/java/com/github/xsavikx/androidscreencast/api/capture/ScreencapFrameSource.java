@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.RawImage;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.TimeoutException;
+import com.github.xsavikx.androidscreencast.api.adb.DeviceCommandScheduler;
+import org.slf4j.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_CAPTURE_IN_FLIGHT_FRAMES_KEY;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Pulls frames by running the on-device {@code screencap} tool, optionally compressing its output on the device to save USB bandwidth.
+ * <p>
+ * The output travels through the plain ADB shell service, which leaves binary output intact on Android 7.0 and newer only. Frames are decoded
+ * into a ring of pixel buffers sized after the number of frames in flight, so steady capture does not allocate a new buffer per frame.
+ */
+@Singleton
+public final class ScreencapFrameSource {
+
+    /**
+     * Android version which added the color space to the {@code screencap} header.
+     */
+    private static final int SDK_HEADER_WITH_COLOR_SPACE = 28;
+    /**
+     * Android version whose shell service stopped translating line endings in the command output.
+     */
+    private static final int SDK_BINARY_SHELL_OUTPUT = 24;
+    private static final int HEADER_SIZE = 12;
+    private static final int HEADER_WITH_COLOR_SPACE_SIZE = 16;
+    /**
+     * Buffers in addition to the in-flight budget: the previous frame pinned by the dirty region detection plus one spare.
+     */
+    private static final int RETAINED_FRAMES = 2;
+    private static final long SDK_QUERY_TIMEOUT_SECONDS = 5;
+    private final DeviceCommandScheduler scheduler;
+    private final PixelBufferRing buffers;
+    /**
+     * Used by the frame lane worker only, reset before every frame.
+     */
+    private final Inflater inflater = new Inflater(true);
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private int sdkLevel = -1;
+    private volatile long lastTransferredBytes;
+    private volatile long lastHostCpuNanos;
+
+    @Inject
+    public ScreencapFrameSource(final DeviceCommandScheduler scheduler, @Named(APP_CAPTURE_IN_FLIGHT_FRAMES_KEY) int inFlightFrames) {
+        this.scheduler = scheduler;
+        this.buffers = new PixelBufferRing(inFlightFrames + RETAINED_FRAMES);
+    }
+
+    /**
+     * @param compression compression of the {@code screencap} output
+     * @return frame source running {@code screencap} with the given compression
+     */
+    public FrameSource withCompression(final Compression compression) {
+        return (timeout, unit) -> fetchFrame(compression, timeout, unit);
+    }
+
+    public RawImage fetchFrame(final Compression compression, final long timeout, final TimeUnit unit)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException, InterruptedException {
+        final int headerSize = getSdkLevel() >= SDK_HEADER_WITH_COLOR_SPACE ? HEADER_WITH_COLOR_SPACE_SIZE : HEADER_SIZE;
+        return scheduler.execute(DeviceCommandScheduler.Lane.FRAME, device -> {
+            final long cpuStart = currentThreadCpuTime();
+            inflater.reset();
+            final ScreencapReceiver receiver = new ScreencapReceiver(compression, headerSize, buffers, inflater);
+            device.executeShellCommand(compression.command, receiver, timeout, unit);
+            final RawImage rawImage = receiver.finish();
+            lastTransferredBytes = receiver.getTransferredBytes();
+            lastHostCpuNanos = currentThreadCpuTime() - cpuStart;
+            return rawImage;
+        });
+    }
+
+    /**
+     * @see FrameSource#pin(RawImage)
+     */
+    public void pin(final RawImage frame) {
+        buffers.pin(frame.data);
+    }
+
+    /**
+     * @see FrameSource#unpin(RawImage)
+     */
+    public void unpin(final RawImage frame) {
+        buffers.unpin(frame.data);
+    }
+
+    /**
+     * @return whether the device shell passes binary output through unchanged, which {@code screencap} capture relies on
+     */
+    public boolean isSupported()
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException, InterruptedException {
+        return getSdkLevel() >= SDK_BINARY_SHELL_OUTPUT;
+    }
+
+    /**
+     * @return number of bytes the last frame took on the wire
+     */
+    public long getLastTransferredBytes() {
+        return lastTransferredBytes;
+    }
+
+    /**
+     * @return host CPU time spent on receiving and decoding the last frame, or 0 if the JVM does not measure thread CPU time
+     */
+    public long getLastHostCpuNanos() {
+        return lastHostCpuNanos;
+    }
+
+    private synchronized int getSdkLevel()
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException, InterruptedException {
+        if (sdkLevel < 0) {
+            final StringBuilder output = new StringBuilder();
+            scheduler.execute(DeviceCommandScheduler.Lane.FRAME, device -> {
+                device.executeShellCommand("getprop ro.build.version.sdk", new IShellOutputReceiver() {
+                    @Override
+                    public void addOutput(byte[] data, int offset, int length) {
+                        output.append(new String(data, offset, length, StandardCharsets.US_ASCII));
+                    }
+
+                    @Override
+                    public void flush() {
+                        // nothing is buffered
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return false;
+                    }
+                }, SDK_QUERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                return null;
+            });
+            try {
+                sdkLevel = Integer.parseInt(output.toString().trim());
+            } catch (final NumberFormatException e) {
+                log().warn("Failed to read the Android version of the device: '{}'.", output.toString().trim(), e);
+                sdkLevel = 0;
+            }
+            log().debug("Device Android SDK level is {}.", sdkLevel);
+        }
+        return sdkLevel;
+    }
+
+    private long currentThreadCpuTime() {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Compression applied to the {@code screencap} output on the device.
+     */
+    public enum Compression {
+        NONE("screencap"),
+        /**
+         * Fastest gzip level: the device CPU is the bottleneck long before the compression ratio matters.
+         */
+        GZIP("screencap | gzip -1"),
+        PNG("screencap -p");
+
+        private final String command;
+
+        Compression(final String command) {
+            this.command = command;
+        }
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(ScreencapFrameSource.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
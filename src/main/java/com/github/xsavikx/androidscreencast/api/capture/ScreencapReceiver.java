@@ -0,0 +1,360 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.RawImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the output of a single {@code screencap} run into a {@link RawImage} while it is being received.
+ * <p>
+ * Raw and gzip output is written straight into a pixel buffer of the {@link PixelBufferRing}, gzip being inflated chunk by chunk as it arrives.
+ * PNG output is collected and decoded at the end. The receiver does not touch the device, so it can be fed canned output as well.
+ */
+final class ScreencapReceiver implements IShellOutputReceiver {
+
+    private static final int GZIP_HEADER_LENGTH = 10;
+    private static final int GZIP_FLAG_HEADER_CRC = 2;
+    private static final int GZIP_FLAG_EXTRA = 4;
+    private static final int GZIP_FLAG_NAME = 8;
+    private static final int GZIP_FLAG_COMMENT = 16;
+    private static final int GZIP_METHOD_DEFLATE = 8;
+    private static final int PIXEL_FORMAT_RGBA_8888 = 1;
+    private static final int PIXEL_FORMAT_RGBX_8888 = 2;
+    private static final int PIXEL_FORMAT_RGB_565 = 4;
+    private static final int PIXEL_FORMAT_BGRA_8888 = 5;
+    /**
+     * Amount of unexpected output quoted in error messages, e.g. when {@code screencap} or {@code gzip} is missing.
+     */
+    private static final int QUOTED_OUTPUT_LENGTH = 128;
+    /**
+     * Largest frame accepted, in bytes: 8192x8192 pixels of 32 bits. Anything larger is output which is not a frame, e.g. an error message read as
+     * a header.
+     */
+    private static final long MAX_FRAME_SIZE = 8192L * 8192 * 4;
+    private final ScreencapFrameSource.Compression compression;
+    private final PixelBufferRing buffers;
+    private final Inflater inflater;
+    private final byte[] header;
+    private int headerLength;
+    private RawImage image;
+    private int pixelsLength;
+    /**
+     * Output kept aside until it can be interpreted: the gzip header or the whole PNG image.
+     */
+    private byte[] pending = new byte[0];
+    private int pendingLength;
+    private boolean inflating;
+    private long transferredBytes;
+    private IOException failure;
+
+    /**
+     * @param compression compression of the {@code screencap} output
+     * @param headerSize  size of the header {@code screencap} puts in front of raw pixels. It depends on the Android version
+     * @param buffers     buffers to decode pixels into
+     * @param inflater    inflater for gzip output, set up for raw deflate data
+     */
+    ScreencapReceiver(ScreencapFrameSource.Compression compression, int headerSize, PixelBufferRing buffers, Inflater inflater) {
+        this.compression = compression;
+        this.header = new byte[headerSize];
+        this.buffers = buffers;
+        this.inflater = inflater;
+    }
+
+    @Override
+    public void addOutput(final byte[] data, final int offset, final int length) {
+        if (failure != null) {
+            return;
+        }
+        transferredBytes += length;
+        try {
+            switch (compression) {
+                case NONE:
+                    consume(data, offset, length);
+                    break;
+                case GZIP:
+                    if (inflating) {
+                        inflate(data, offset, length);
+                    } else {
+                        keep(data, offset, length);
+                        startInflating();
+                    }
+                    break;
+                case PNG:
+                    keep(data, offset, length);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown compression: " + compression);
+            }
+        } catch (final IOException e) {
+            failure = e;
+        }
+    }
+
+    @Override
+    public void flush() {
+        // output is decoded as it arrives
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return failure != null;
+    }
+
+    /**
+     * @return the decoded frame
+     * @throws IOException if the output was not a complete frame
+     */
+    RawImage finish() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (compression == ScreencapFrameSource.Compression.PNG) {
+            return decodePng();
+        }
+        if (image == null || pixelsLength < image.size) {
+            throw new IOException(String.format("Screencap frame is incomplete: received %d bytes of output, %d bytes of pixels. %s",
+                    transferredBytes, pixelsLength, quote(header, headerLength)));
+        }
+        return image;
+    }
+
+    /**
+     * @return number of bytes received from the device
+     */
+    long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    private void consume(final byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int copied;
+            if (image == null) {
+                copied = Math.min(length, header.length - headerLength);
+                System.arraycopy(data, offset, header, headerLength, copied);
+                headerLength += copied;
+                if (headerLength == header.length) {
+                    startImage();
+                }
+            } else {
+                copied = Math.min(length, image.size - pixelsLength);
+                if (copied == 0) {
+                    throw new IOException("Screencap sent more data than the frame holds: " + image.width + "x" + image.height + ".");
+                }
+                System.arraycopy(data, offset, image.data, pixelsLength, copied);
+                pixelsLength += copied;
+            }
+            offset += copied;
+            length -= copied;
+        }
+    }
+
+    private void startInflating() throws IOException {
+        final int length = gzipHeaderLength();
+        if (length < 0) {
+            return;
+        }
+        inflating = true;
+        inflate(pending, length, pendingLength - length);
+        pending = null;
+    }
+
+    /**
+     * @return length of the gzip header kept aside, or -1 if it has not been received completely yet
+     */
+    private int gzipHeaderLength() throws IOException {
+        if (pendingLength < GZIP_HEADER_LENGTH) {
+            return -1;
+        }
+        if ((pending[0] & 0xff) != 0x1f || (pending[1] & 0xff) != 0x8b) {
+            throw new IOException("Screencap output is not gzip compressed. " + quote(pending, pendingLength));
+        }
+        if (pending[2] != GZIP_METHOD_DEFLATE) {
+            throw new IOException("Unsupported gzip compression method: " + pending[2]);
+        }
+        final int flags = pending[3];
+        int position = GZIP_HEADER_LENGTH;
+        if ((flags & GZIP_FLAG_EXTRA) != 0) {
+            if (pendingLength < position + 2) {
+                return -1;
+            }
+            position += 2 + ((pending[position] & 0xff) | (pending[position + 1] & 0xff) << 8);
+        }
+        if ((flags & GZIP_FLAG_NAME) != 0) {
+            position = skipZeroTerminated(position);
+        }
+        if ((flags & GZIP_FLAG_COMMENT) != 0) {
+            position = skipZeroTerminated(position);
+        }
+        if ((flags & GZIP_FLAG_HEADER_CRC) != 0 && position >= 0) {
+            position += 2;
+        }
+        return position >= 0 && position <= pendingLength ? position : -1;
+    }
+
+    private int skipZeroTerminated(final int position) {
+        if (position < 0) {
+            return position;
+        }
+        for (int i = position; i < pendingLength; i++) {
+            if (pending[i] == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inflates the chunk straight into the header and then into the pixel buffer. The inflater has to consume the whole chunk before returning,
+     * as the chunk is reused for the next output.
+     */
+    private void inflate(final byte[] data, final int offset, final int length) throws IOException {
+        if (inflater.finished()) {
+            // gzip trailer
+            return;
+        }
+        inflater.setInput(data, offset, length);
+        try {
+            while (!inflater.finished() && !inflater.needsInput()) {
+                final int inflated;
+                if (image == null) {
+                    inflated = inflater.inflate(header, headerLength, header.length - headerLength);
+                    headerLength += inflated;
+                    if (headerLength == header.length) {
+                        startImage();
+                    }
+                } else if (pixelsLength < image.size) {
+                    inflated = inflater.inflate(image.data, pixelsLength, image.size - pixelsLength);
+                    pixelsLength += inflated;
+                } else {
+                    inflated = inflater.inflate(new byte[1]);
+                    if (inflated > 0) {
+                        throw new IOException("Screencap sent more data than the frame holds: " + image.width + "x" + image.height + ".");
+                    }
+                }
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    throw new IOException("Screencap output is not a valid gzip stream.");
+                }
+            }
+        } catch (final DataFormatException e) {
+            throw new IOException("Screencap output is not a valid gzip stream.", e);
+        }
+    }
+
+    private void keep(final byte[] data, final int offset, final int length) {
+        if (pendingLength + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+        }
+        System.arraycopy(data, offset, pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    /**
+     * Reads the header: width, height and pixel format as little endian ints, followed by the color space on newer Android versions.
+     */
+    private void startImage() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        final int width = buffer.getInt();
+        final int height = buffer.getInt();
+        final int format = buffer.getInt();
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Screencap output is not a frame. " + quote(header, headerLength));
+        }
+        final RawImage rawImage = new RawImage();
+        switch (format) {
+            case PIXEL_FORMAT_RGBA_8888:
+                setChannels(rawImage, 32, 0, 8, 16, 24);
+                break;
+            case PIXEL_FORMAT_RGBX_8888:
+                setChannels(rawImage, 32, 0, 8, 16, 24);
+                rawImage.alpha_length = 0;
+                break;
+            case PIXEL_FORMAT_BGRA_8888:
+                setChannels(rawImage, 32, 16, 8, 0, 24);
+                break;
+            case PIXEL_FORMAT_RGB_565:
+                rawImage.bpp = 16;
+                rawImage.red_offset = 11;
+                rawImage.red_length = 5;
+                rawImage.green_offset = 5;
+                rawImage.green_length = 6;
+                rawImage.blue_offset = 0;
+                rawImage.blue_length = 5;
+                break;
+            default:
+                throw new IOException("Unsupported screencap pixel format: " + format + ". " + quote(header, headerLength));
+        }
+        rawImage.version = 1;
+        rawImage.width = width;
+        rawImage.height = height;
+        final long size = (long) width * height * (rawImage.bpp / 8);
+        if (size > MAX_FRAME_SIZE) {
+            throw new IOException(String.format("Screencap output is not a frame, %dx%d pixels are too large. %s", width, height,
+                    quote(header, headerLength)));
+        }
+        rawImage.size = (int) size;
+        rawImage.data = buffers.lease(rawImage.size);
+        image = rawImage;
+    }
+
+    private RawImage decodePng() throws IOException {
+        final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(pending, 0, pendingLength));
+        if (decoded == null) {
+            throw new IOException("Screencap output is not a PNG image. " + quote(pending, pendingLength));
+        }
+        final RawImage rawImage = new RawImage();
+        setChannels(rawImage, 32, 16, 8, 0, 24);
+        rawImage.version = 1;
+        rawImage.width = decoded.getWidth();
+        rawImage.height = decoded.getHeight();
+        rawImage.size = rawImage.width * rawImage.height * 4;
+        rawImage.data = buffers.lease(rawImage.size);
+        // ARGB ints stored little endian are B, G, R, A bytes
+        final int[] pixels = decoded.getRGB(0, 0, rawImage.width, rawImage.height, null, 0, rawImage.width);
+        ByteBuffer.wrap(rawImage.data).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(pixels);
+        return rawImage;
+    }
+
+    private static void setChannels(RawImage rawImage, int bpp, int redOffset, int greenOffset, int blueOffset, int alphaOffset) {
+        rawImage.bpp = bpp;
+        rawImage.red_offset = redOffset;
+        rawImage.red_length = 8;
+        rawImage.green_offset = greenOffset;
+        rawImage.green_length = 8;
+        rawImage.blue_offset = blueOffset;
+        rawImage.blue_length = 8;
+        rawImage.alpha_offset = alphaOffset;
+        rawImage.alpha_length = 8;
+    }
+
+    private static String quote(byte[] data, int length) {
+        return "Output: '" + new String(data, 0, Math.min(length, QUOTED_OUTPUT_LENGTH), StandardCharsets.UTF_8).trim() + "'.";
+    }
+}
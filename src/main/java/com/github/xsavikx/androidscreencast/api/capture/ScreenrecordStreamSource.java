@@ -0,0 +1,240 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.TimeoutException;
+import com.github.xsavikx.androidscreencast.api.adb.DeviceCommandScheduler;
+import org.slf4j.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_STREAM_BIT_RATE_KEY;
+import static com.google.common.base.Preconditions.checkState;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Streams the device screen as an H.264 Annex B elementary stream produced by the on-device {@code screenrecord} tool.
+ * <p>
+ * {@code screenrecord} stops on its own after its time limit, so it is started over until the source is stopped; every run begins with fresh
+ * parameter sets and a key frame. The output travels through the plain ADB shell service, which leaves binary output intact on Android 7.0 and
+ * newer only: older devices translate line endings and would corrupt the video.
+ */
+@Singleton
+public final class ScreenrecordStreamSource implements EncodedStreamSource {
+
+    private static final String SCREENRECORD_COMMAND = "screenrecord --output-format=h264 --bit-rate %d -";
+    private static final long RESTART_DELAY_MILLIS = 500;
+    /**
+     * Maximum time to wait for a cancelled {@code screenrecord} run to return before the end of the stream is signalled.
+     */
+    private static final long STOP_TIMEOUT_SECONDS = 5;
+    /**
+     * Amount of the leading output kept to tell a stream from an error message.
+     */
+    private static final int PROBE_LENGTH = 256;
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+    private final DeviceCommandScheduler scheduler;
+    private final String command;
+    private StreamRun run;
+
+    @Inject
+    public ScreenrecordStreamSource(final DeviceCommandScheduler scheduler, @Named(APP_STREAM_BIT_RATE_KEY) int bitRate) {
+        this.scheduler = scheduler;
+        this.command = String.format(SCREENRECORD_COMMAND, bitRate);
+    }
+
+    @Override
+    public synchronized void start(final EncodedStreamListener listener) {
+        checkState(run == null, "Screen recorder stream is running already.");
+        run = new StreamRun(listener);
+        run.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (run == null) {
+            return;
+        }
+        run.stop();
+        run = null;
+    }
+
+    /**
+     * A stream from start to stop, restarting {@code screenrecord} whenever it reaches its time limit. Every run has its own stop flag, so a run
+     * which is still winding down does not pass output on again once the source has been started anew.
+     */
+    private final class StreamRun {
+
+        private final EncodedStreamListener listener;
+        private final Thread thread;
+        private volatile boolean isStopped;
+
+        private StreamRun(final EncodedStreamListener listener) {
+            this.listener = listener;
+            this.thread = new Thread(this::stream, "Screenrecord Stream");
+            this.thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void stop() {
+            isStopped = true;
+            // cancels the shell command, which otherwise only notices the cancellation once the device sends more data
+            thread.interrupt();
+        }
+
+        private void stream() {
+            log().info("Starting screen recorder stream: {}.", command);
+            StreamReceiver receiver = null;
+            try {
+                while (!isStopped) {
+                    final StreamReceiver current = new StreamReceiver();
+                    receiver = current;
+                    try {
+                        scheduler.execute(DeviceCommandScheduler.Lane.STREAM, device -> {
+                            current.commandStarted();
+                            try {
+                                device.executeShellCommand(command, current, 0, TimeUnit.SECONDS);
+                            } finally {
+                                current.commandReturned();
+                            }
+                            return null;
+                        });
+                        if (!receiver.isVideo()) {
+                            log().error("Device is not able to stream its screen, screenrecord replied: {}.", receiver.getProbe());
+                            break;
+                        }
+                        log().debug("Screen recorder has reached its time limit. Restarting it.");
+                    } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | SyncException | IOException e) {
+                        log().warn("Screen recorder stream failed. Will restart it in {} ms.", RESTART_DELAY_MILLIS, e);
+                        Thread.sleep(RESTART_DELAY_MILLIS);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                log().debug("Screen recorder stream was interrupted.", e);
+            } finally {
+                // an interrupted wait does not stop the shell command, which may still be passing output on from the lane thread
+                if (receiver != null) {
+                    receiver.close();
+                }
+                listener.onEndOfStream();
+            }
+            log().info("Stopping screen recorder stream.");
+        }
+
+        /**
+         * Passes the output of a single {@code screenrecord} run on, keeping its beginning to check whether it is a video at all.
+         */
+        private final class StreamReceiver implements IShellOutputReceiver {
+
+            private final byte[] probe = new byte[PROBE_LENGTH];
+            private final CountDownLatch returned = new CountDownLatch(1);
+            private volatile boolean started;
+            private int probeLength;
+            private boolean video;
+            private boolean closed;
+
+            private void commandStarted() {
+                started = true;
+            }
+
+            private void commandReturned() {
+                returned.countDown();
+            }
+
+            /**
+             * Waits a bounded time for the shell command to return and stops passing its output on, so that the listener is not called any more
+             * once this method returns.
+             */
+            private void close() {
+                if (started) {
+                    try {
+                        if (!returned.await(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                            log().warn("Screen recorder did not stop within {} seconds, its remaining output is discarded.",
+                                    STOP_TIMEOUT_SECONDS);
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                synchronized (this) {
+                    closed = true;
+                }
+            }
+
+            @Override
+            public synchronized void addOutput(final byte[] data, final int offset, final int length) {
+                if (closed || isStopped) {
+                    return;
+                }
+                if (probeLength < PROBE_LENGTH) {
+                    final int copied = Math.min(length, PROBE_LENGTH - probeLength);
+                    System.arraycopy(data, offset, probe, probeLength, copied);
+                    probeLength += copied;
+                    video = probeLength >= START_CODE.length && Arrays.equals(Arrays.copyOf(probe, START_CODE.length), START_CODE);
+                }
+                if (video) {
+                    listener.onData(data, offset, length);
+                }
+            }
+
+            @Override
+            public void flush() {
+                // nothing is buffered
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return isStopped;
+            }
+
+            private synchronized boolean isVideo() {
+                return video;
+            }
+
+            private synchronized String getProbe() {
+                return new String(probe, 0, probeLength, StandardCharsets.UTF_8).trim();
+            }
+        }
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(ScreenrecordStreamSource.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.capture;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.RawImage;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.TimeoutException;
+import org.slf4j.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_CAPTURE_MODE_KEY;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Frame source delegating to the configured {@link CaptureMode}.
+ * <p>
+ * In {@link CaptureMode#AUTO} mode the first fetch benchmarks every mode the device supports: USB bandwidth, device CPU and host CPU all vary
+ * between setups, so neither raw nor compressed transfer is the better choice in general. The mode with the shortest frame time wins; modes
+ * within {@link #TIE_TOLERANCE} of it are told apart by the host CPU time they take.
+ */
+@Singleton
+public final class SelectingFrameSource implements FrameSource {
+
+    private static final int BENCHMARK_FRAMES = 2;
+    private static final double TIE_TOLERANCE = 1.1;
+    private final Map<CaptureMode, FrameSource> sources = new EnumMap<>(CaptureMode.class);
+    private final FramebufferFrameSource framebufferFrameSource;
+    private final ScreencapFrameSource screencapFrameSource;
+    private final CaptureMode mode;
+    private volatile FrameSource selected;
+
+    @Inject
+    public SelectingFrameSource(final FramebufferFrameSource framebufferFrameSource,
+                                final ScreencapFrameSource screencapFrameSource,
+                                @Named(APP_CAPTURE_MODE_KEY) CaptureMode mode) {
+        this.framebufferFrameSource = framebufferFrameSource;
+        this.screencapFrameSource = screencapFrameSource;
+        this.mode = mode;
+        sources.put(CaptureMode.FRAMEBUFFER, framebufferFrameSource);
+        sources.put(CaptureMode.SCREENCAP, screencapFrameSource.withCompression(ScreencapFrameSource.Compression.NONE));
+        sources.put(CaptureMode.SCREENCAP_GZIP, screencapFrameSource.withCompression(ScreencapFrameSource.Compression.GZIP));
+        sources.put(CaptureMode.SCREENCAP_PNG, screencapFrameSource.withCompression(ScreencapFrameSource.Compression.PNG));
+    }
+
+    @Override
+    public RawImage fetchFrame(final long timeout, final TimeUnit unit)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, SyncException, IOException, InterruptedException {
+        FrameSource source = selected;
+        if (source == null) {
+            source = select(timeout, unit);
+        }
+        return source.fetchFrame(timeout, unit);
+    }
+
+    @Override
+    public void pin(final RawImage frame) {
+        // only screencap frames recycle their pixel data
+        screencapFrameSource.pin(frame);
+    }
+
+    @Override
+    public void unpin(final RawImage frame) {
+        screencapFrameSource.unpin(frame);
+    }
+
+    private synchronized FrameSource select(final long timeout, final TimeUnit unit) throws InterruptedException, ClosedByInterruptException {
+        if (selected == null) {
+            final CaptureMode selectedMode = mode == CaptureMode.AUTO ? benchmark(timeout, unit) : mode;
+            log().info("Capturing frames in {} mode.", selectedMode);
+            selected = sources.get(selectedMode);
+        }
+        return selected;
+    }
+
+    private CaptureMode benchmark(final long timeout, final TimeUnit unit) throws InterruptedException, ClosedByInterruptException {
+        final boolean screencapSupported = isScreencapSupported();
+        Measurement best = null;
+        for (final Map.Entry<CaptureMode, FrameSource> source : sources.entrySet()) {
+            if (source.getKey() != CaptureMode.FRAMEBUFFER && !screencapSupported) {
+                continue;
+            }
+            final Measurement measurement = measure(source.getKey(), source.getValue(), timeout, unit);
+            if (measurement != null && (best == null || measurement.isBetterThan(best))) {
+                best = measurement;
+            }
+        }
+        return best == null ? CaptureMode.FRAMEBUFFER : best.mode;
+    }
+
+    private boolean isScreencapSupported() throws InterruptedException, ClosedByInterruptException {
+        try {
+            if (screencapFrameSource.isSupported()) {
+                return true;
+            }
+            log().info("Device shell does not pass binary output through, screencap capture modes are skipped.");
+        } catch (final ClosedByInterruptException e) {
+            throw e;
+        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | SyncException | IOException e) {
+            log().warn("Failed to check whether the device supports screencap capture modes.", e);
+        }
+        return false;
+    }
+
+    /**
+     * @return the fastest of {@link #BENCHMARK_FRAMES} fetches, or {@code null} if the mode does not work on the device
+     */
+    private Measurement measure(final CaptureMode mode, final FrameSource source, final long timeout, final TimeUnit unit)
+            throws InterruptedException, ClosedByInterruptException {
+        Measurement best = null;
+        try {
+            for (int i = 0; i < BENCHMARK_FRAMES; i++) {
+                final long start = System.nanoTime();
+                final RawImage rawImage = source.fetchFrame(timeout, unit);
+                final long frameNanos = System.nanoTime() - start;
+                if (rawImage == null) {
+                    log().info("Capture mode {} did not provide a frame.", mode);
+                    return null;
+                }
+                // both kinds of source measure the CPU time of the lane thread which receives and decodes the frame
+                final Measurement measurement = mode == CaptureMode.FRAMEBUFFER
+                        ? new Measurement(mode, frameNanos, rawImage.data.length, framebufferFrameSource.getLastHostCpuNanos())
+                        : new Measurement(mode, frameNanos, screencapFrameSource.getLastTransferredBytes(), screencapFrameSource.getLastHostCpuNanos());
+                if (best == null || measurement.frameNanos < best.frameNanos) {
+                    best = measurement;
+                }
+            }
+        } catch (final ClosedByInterruptException e) {
+            throw e;
+        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | SyncException | IOException e) {
+            log().info("Capture mode {} is not available on the device.", mode, e);
+            return null;
+        }
+        log().info("Capture mode {}: {} ms per frame, {} KB per frame at {} MB/s, {} ms of host CPU.",
+                mode,
+                TimeUnit.NANOSECONDS.toMillis(best.frameNanos),
+                best.transferredBytes / 1024,
+                String.format("%.1f", best.transferredBytes * 1000d / Math.max(best.frameNanos, 1)),
+                TimeUnit.NANOSECONDS.toMillis(best.hostCpuNanos));
+        return best;
+    }
+
+    private static final class Measurement {
+
+        private final CaptureMode mode;
+        private final long frameNanos;
+        private final long transferredBytes;
+        private final long hostCpuNanos;
+
+        private Measurement(CaptureMode mode, long frameNanos, long transferredBytes, long hostCpuNanos) {
+            this.mode = mode;
+            this.frameNanos = frameNanos;
+            this.transferredBytes = transferredBytes;
+            this.hostCpuNanos = hostCpuNanos;
+        }
+
+        private boolean isBetterThan(final Measurement other) {
+            if (frameNanos * TIE_TOLERANCE < other.frameNanos) {
+                return true;
+            }
+            if (other.frameNanos * TIE_TOLERANCE < frameNanos) {
+                return false;
+            }
+            return hostCpuNanos < other.hostCpuNanos;
+        }
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(SelectingFrameSource.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
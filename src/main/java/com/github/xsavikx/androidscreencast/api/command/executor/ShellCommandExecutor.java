@@ -18,8 +18,10 @@
 package com.github.xsavikx.androidscreencast.api.command.executor;
 
 import com.android.ddmlib.*;
+import com.github.xsavikx.androidscreencast.api.adb.DeviceCommandScheduler;
 import com.github.xsavikx.androidscreencast.api.command.Command;
 import com.github.xsavikx.androidscreencast.api.command.exception.AdbShellCommandExecutionException;
+import com.github.xsavikx.androidscreencast.api.injector.CaptureRateController;
 import org.slf4j.Logger;
 
 import javax.inject.Inject;
@@ -34,15 +36,18 @@ import static org.slf4j.LoggerFactory.getLogger;
 @Singleton
 public final class ShellCommandExecutor implements CommandExecutor {
 
-    private final IDevice device;
+    private final DeviceCommandScheduler scheduler;
+    private final CaptureRateController rateController;
     private final IShellOutputReceiver shellOutputReceiver;
     private final long adbCommandTimeout;
 
     @Inject
-    public ShellCommandExecutor(final IDevice device,
+    public ShellCommandExecutor(final DeviceCommandScheduler scheduler,
+                                final CaptureRateController rateController,
                                 final IShellOutputReceiver shellOutputReceiver,
                                 @Named(ADB_COMMAND_TIMEOUT_KEY) long adbCommandTimeout) {
-        this.device = device;
+        this.scheduler = scheduler;
+        this.rateController = rateController;
         this.shellOutputReceiver = shellOutputReceiver;
         this.adbCommandTimeout = adbCommandTimeout;
     }
@@ -50,14 +55,21 @@ public final class ShellCommandExecutor implements CommandExecutor {
     @Override
     public void execute(Command command) {
         log().debug("Executing command: {}", command);
-
+        rateController.userInputSent();
         try {
-            device.executeShellCommand(command.getFormattedCommand(), shellOutputReceiver,
-                    adbCommandTimeout, TimeUnit.SECONDS);
+            scheduler.execute(DeviceCommandScheduler.Lane.INPUT, device -> {
+                device.executeShellCommand(command.getFormattedCommand(), shellOutputReceiver,
+                        adbCommandTimeout, TimeUnit.SECONDS);
+                return null;
+            });
             log().debug("Command {} successfully executed.", command);
-        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
+        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | SyncException | IOException e) {
             log().error("An exception happened during command execution: {}.", command, e);
             throw new AdbShellCommandExecutionException(command, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log().error("Command execution was interrupted: {}.", command, e);
+            throw new AdbShellCommandExecutionException(command, e);
         }
     }
 
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * All NAL units of a single coded picture, in the length-prefixed layout used for samples of MP4 and QuickTime files.
+ * <p>
+ * The sample is a view of the assembler's buffer: it is only valid until the listener the unit was handed to returns.
+ */
+public final class AccessUnit {
+
+    /**
+     * Size of the big-endian length field preceding every NAL unit in the sample.
+     */
+    public static final int NAL_LENGTH_SIZE = 4;
+    private final ByteBuffer sample;
+    private final boolean keyframe;
+    private final long streamOffset;
+    private final long receiveTime;
+    private final SequenceParameterSet sequenceParameterSet;
+    private final byte[] sps;
+    private final byte[] pps;
+
+    AccessUnit(ByteBuffer sample, boolean keyframe, long streamOffset, long receiveTime, SequenceParameterSet sequenceParameterSet, byte[] sps,
+               byte[] pps) {
+        this.sample = sample;
+        this.keyframe = keyframe;
+        this.streamOffset = streamOffset;
+        this.receiveTime = receiveTime;
+        this.sequenceParameterSet = sequenceParameterSet;
+        this.sps = sps;
+        this.pps = pps;
+    }
+
+    /**
+     * @return read-only view of the sample
+     */
+    public ByteBuffer getSample() {
+        return sample.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return whether the picture is an IDR picture, which can be decoded without any preceding one
+     */
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+
+    /**
+     * @return offset of the first NAL unit of the picture from the beginning of the Annex B stream
+     */
+    public long getStreamOffset() {
+        return streamOffset;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at the moment the first NAL unit of the picture was received
+     */
+    public long getReceiveTime() {
+        return receiveTime;
+    }
+
+    /**
+     * @return the latest sequence parameter set seen in the stream, or {@code null} if there was none yet
+     */
+    public SequenceParameterSet getSequenceParameterSet() {
+        return sequenceParameterSet;
+    }
+
+    /**
+     * @return the latest sequence parameter set NAL unit seen in the stream, or {@code null} if there was none yet
+     */
+    public byte[] getSps() {
+        return sps;
+    }
+
+    /**
+     * @return the latest picture parameter set NAL unit seen in the stream, or {@code null} if there was none yet
+     */
+    public byte[] getPps() {
+        return pps;
+    }
+
+    public interface AccessUnitListener {
+        void onAccessUnit(AccessUnit accessUnit);
+
+        void onEndOfStream();
+    }
+}
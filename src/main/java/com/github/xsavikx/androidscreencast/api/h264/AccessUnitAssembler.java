@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import org.slf4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Groups NAL units into access units, following the rules for the first NAL unit of an access unit from section 7.4.1.2.3 of ITU-T H.264.
+ * <p>
+ * Only the access unit being assembled is buffered. Access unit delimiters are dropped, parameter sets stay in-band and are also remembered,
+ * so that the stream can be described in a container.
+ */
+public final class AccessUnitAssembler implements NalUnit.NalUnitListener {
+
+    private static final int INITIAL_CAPACITY = 256 * 1024;
+    private final AccessUnit.AccessUnitListener listener;
+    private byte[] sample = new byte[INITIAL_CAPACITY];
+    private int sampleLength;
+    private boolean hasVcl;
+    private boolean keyframe;
+    private long streamOffset = -1;
+    private long receiveTime;
+    private byte[] sps;
+    private byte[] pps;
+    private SequenceParameterSet sequenceParameterSet;
+
+    public AccessUnitAssembler(final AccessUnit.AccessUnitListener listener) {
+        this.listener = checkNotNull(listener, "listener");
+    }
+
+    @Override
+    public void onNalUnit(final NalUnit nalUnit) {
+        if (hasVcl && startsAccessUnit(nalUnit)) {
+            emit();
+        }
+        if (streamOffset == -1) {
+            streamOffset = nalUnit.getStreamOffset();
+            receiveTime = System.nanoTime();
+        }
+        final int type = nalUnit.getType();
+        if (type == NalUnit.TYPE_AUD) {
+            return;
+        }
+        if (type == NalUnit.TYPE_SPS) {
+            updateSps(nalUnit);
+        } else if (type == NalUnit.TYPE_PPS) {
+            pps = nalUnit.toByteArray();
+        }
+        append(nalUnit);
+        hasVcl |= nalUnit.isVcl();
+        keyframe |= nalUnit.isKeyframe();
+    }
+
+    @Override
+    public void onEndOfStream() {
+        if (hasVcl) {
+            emit();
+        }
+        listener.onEndOfStream();
+    }
+
+    private static boolean startsAccessUnit(final NalUnit nalUnit) {
+        final int type = nalUnit.getType();
+        return (type >= NalUnit.TYPE_SEI && type <= NalUnit.TYPE_AUD) || (type >= 14 && type <= 18) || nalUnit.isFirstSlice();
+    }
+
+    private void updateSps(final NalUnit nalUnit) {
+        sps = nalUnit.toByteArray();
+        try {
+            sequenceParameterSet = SequenceParameterSet.parse(nalUnit);
+        } catch (IllegalArgumentException e) {
+            log().warn("Failed to parse sequence parameter set: {}.", nalUnit, e);
+        }
+    }
+
+    private void append(final NalUnit nalUnit) {
+        final int length = nalUnit.getLength();
+        if (sample.length - sampleLength < AccessUnit.NAL_LENGTH_SIZE + length) {
+            sample = Arrays.copyOf(sample, Math.max(sample.length * 2, sampleLength + AccessUnit.NAL_LENGTH_SIZE + length));
+        }
+        sample[sampleLength++] = (byte) (length >>> 24);
+        sample[sampleLength++] = (byte) (length >>> 16);
+        sample[sampleLength++] = (byte) (length >>> 8);
+        sample[sampleLength++] = (byte) length;
+        nalUnit.getData().get(sample, sampleLength, length);
+        sampleLength += length;
+    }
+
+    private void emit() {
+        listener.onAccessUnit(new AccessUnit(ByteBuffer.wrap(sample, 0, sampleLength).slice(), keyframe, streamOffset, receiveTime,
+                sequenceParameterSet, sps, pps));
+        sampleLength = 0;
+        hasVcl = false;
+        keyframe = false;
+        streamOffset = -1;
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(AccessUnitAssembler.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import com.github.xsavikx.androidscreencast.api.capture.EncodedStreamSource;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Splits an H.264 Annex B byte stream into NAL units.
+ * <p>
+ * The stream may arrive in chunks of any size: chunks are appended to an internal buffer, which only ever holds the NAL unit still being
+ * received, and complete units are handed to the listener as views of that buffer. A stream available as a whole can be parsed with
+ * {@link #parse(ByteBuffer, NalUnit.NalUnitListener)} without copying it at all.
+ */
+public final class AnnexBParser implements EncodedStreamSource.EncodedStreamListener {
+
+    private static final int INITIAL_CAPACITY = 256 * 1024;
+    private static final int START_CODE_LENGTH = 3;
+    private final NalUnit.NalUnitListener listener;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    /**
+     * Amount of stream bytes in the buffer.
+     */
+    private int bufferLength;
+    /**
+     * Position in the buffer of the unit being received, or -1 until the first start code is found.
+     */
+    private int unitStart = -1;
+    /**
+     * Position in the buffer the search for the next start code continues from.
+     */
+    private int scanPosition;
+    /**
+     * Offset in the stream of the first byte of the buffer.
+     */
+    private long bufferOffset;
+
+    public AnnexBParser(final NalUnit.NalUnitListener listener) {
+        this.listener = checkNotNull(listener, "listener");
+    }
+
+    /**
+     * Parses a complete stream, handing out views of the given buffer.
+     *
+     * @param stream   the stream from its position to its limit
+     * @param listener receives the units and the end of the stream
+     */
+    public static void parse(final ByteBuffer stream, final NalUnit.NalUnitListener listener) {
+        final int end = stream.limit();
+        int start = -1;
+        int position = stream.position();
+        int startCode;
+        while ((startCode = findStartCode(stream, position, end)) != -1) {
+            if (start != -1) {
+                emit(stream, start, startCode, start - stream.position(), listener);
+            }
+            start = startCode + START_CODE_LENGTH;
+            position = start;
+        }
+        if (start != -1) {
+            emit(stream, start, end, start - stream.position(), listener);
+        }
+        listener.onEndOfStream();
+    }
+
+    @Override
+    public void onData(final byte[] data, final int offset, final int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, buffer, bufferLength, length);
+        bufferLength += length;
+        final ByteBuffer view = ByteBuffer.wrap(buffer, 0, bufferLength);
+        final int end = bufferLength;
+        int startCode;
+        while ((startCode = findStartCode(view, scanPosition, end)) != -1) {
+            if (unitStart != -1) {
+                emit(view, unitStart, startCode, bufferOffset + unitStart, listener);
+            }
+            unitStart = startCode + START_CODE_LENGTH;
+            scanPosition = unitStart;
+        }
+        // a start code may be split between this chunk and the next one
+        scanPosition = Math.max(scanPosition, end - (START_CODE_LENGTH - 1));
+    }
+
+    @Override
+    public void onEndOfStream() {
+        if (unitStart != -1) {
+            emit(ByteBuffer.wrap(buffer, 0, bufferLength), unitStart, bufferLength, bufferOffset + unitStart, listener);
+        }
+        unitStart = -1;
+        listener.onEndOfStream();
+    }
+
+    /**
+     * Makes room for the next chunk, dropping everything before the unit being received.
+     */
+    private void ensureCapacity(final int length) {
+        final int keepFrom = unitStart != -1 ? unitStart : scanPosition;
+        if (keepFrom > 0) {
+            bufferLength -= keepFrom;
+            System.arraycopy(buffer, keepFrom, buffer, 0, bufferLength);
+            bufferOffset += keepFrom;
+            scanPosition -= keepFrom;
+            if (unitStart != -1) {
+                unitStart -= keepFrom;
+            }
+        }
+        if (buffer.length - bufferLength < length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + length));
+        }
+    }
+
+    private static void emit(final ByteBuffer source, final int start, final int startCode, final long streamOffset,
+                             final NalUnit.NalUnitListener listener) {
+        int end = startCode;
+        // zero bytes before a start code are either trailing_zero_8bits or the leading byte of a four byte start code
+        while (end > start && source.get(end - 1) == 0) {
+            end--;
+        }
+        if (end > start) {
+            final ByteBuffer data = source.duplicate();
+            // called through Buffer, which declares these methods on every Java version
+            ((Buffer) data).limit(end).position(start);
+            listener.onNalUnit(new NalUnit(data.slice(), streamOffset));
+        }
+    }
+
+    /**
+     * Finds the next {@code 00 00 01} sequence.
+     *
+     * @return position of the sequence, or -1 if there is none before the end
+     */
+    private static int findStartCode(final ByteBuffer data, final int from, final int end) {
+        int position = from;
+        while (position + 2 < end) {
+            final int third = data.get(position + 2) & 0xff;
+            if (third > 1) {
+                // no start code can cover this byte, so the search may skip past it
+                position += 3;
+            } else if (third == 1 && data.get(position + 1) == 0 && data.get(position) == 0) {
+                return position;
+            } else {
+                position++;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builds the AVCDecoderConfigurationRecord stored in the {@code avcC} atom of an {@code avc1} sample description, as specified in section
+ * 5.2.4.1 of ISO/IEC 14496-15.
+ */
+public final class AvcConfigurationRecord {
+
+    private AvcConfigurationRecord() {
+    }
+
+    /**
+     * @param sps sequence parameter set NAL unit, without start code
+     * @param pps picture parameter set NAL unit, without start code
+     * @return contents of the {@code avcC} atom, announcing NAL unit lengths of {@link AccessUnit#NAL_LENGTH_SIZE} bytes
+     */
+    public static byte[] create(final byte[] sps, final byte[] pps) {
+        checkNotNull(sps, "sps");
+        checkNotNull(pps, "pps");
+        checkArgument(sps.length >= 4, "Sequence parameter set is too short: %s bytes", sps.length);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(sps.length + pps.length + 16);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(1); // configurationVersion
+            out.writeByte(sps[1]); // AVCProfileIndication
+            out.writeByte(sps[2]); // profile_compatibility
+            out.writeByte(sps[3]); // AVCLevelIndication
+            out.writeByte(0xfc | (AccessUnit.NAL_LENGTH_SIZE - 1)); // reserved and lengthSizeMinusOne
+            out.writeByte(0xe0 | 1); // reserved and numOfSequenceParameterSets
+            out.writeShort(sps.length);
+            out.write(sps);
+            out.writeByte(1); // numOfPictureParameterSets
+            out.writeShort(pps.length);
+            out.write(pps);
+            final int profileIdc = sps[1] & 0xff;
+            if (SequenceParameterSet.hasChromaInfo(profileIdc) && profileIdc != 44 && profileIdc != 244) {
+                final SequenceParameterSet parsed = SequenceParameterSet.parse(new NalUnit(ByteBuffer.wrap(sps), 0));
+                out.writeByte(0xfc | parsed.getChromaFormatIdc());
+                out.writeByte(0xf8 | (parsed.getBitDepthLuma() - 8));
+                out.writeByte(0xf8 | (parsed.getBitDepthChroma() - 8));
+                out.writeByte(0); // numOfSequenceParameterSetExt
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory failed.", e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import com.github.xsavikx.androidscreencast.api.recording.QuickTimeOutputStream;
+import com.github.xsavikx.androidscreencast.exception.IORuntimeException;
+import org.slf4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Writes access units into a QuickTime movie as they are, without decoding or encoding anything.
+ * <p>
+ * The stream carries no timestamps, so the duration of every sample is the time until the next access unit was received. This is why a
+ * single access unit is held back until the next one arrives. Access units before the first keyframe can not be decoded and are skipped.
+ * The movie is finished and closed at the end of the stream.
+ */
+public final class H264Remuxer implements AccessUnit.AccessUnitListener {
+
+    /**
+     * Time scale of the movie, the usual clock rate of MPEG video.
+     */
+    public static final int TIME_SCALE = 90000;
+    /**
+     * Duration given to the last sample when there is no previous one to take it from.
+     */
+    private static final int DEFAULT_DURATION = TIME_SCALE / 30;
+    private final QuickTimeOutputStream movie;
+    private final KeyframeIndex keyframeIndex = new KeyframeIndex();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private byte[] pending = new byte[0];
+    private int pendingLength = -1;
+    private boolean pendingKeyframe;
+    private long pendingReceiveTime;
+    private int lastDuration = DEFAULT_DURATION;
+    private long firstReceiveTime;
+    private int samples;
+    private int skippedUnits;
+    private SequenceParameterSet sequenceParameterSet;
+
+    /**
+     * @param movie movie opened for {@link QuickTimeOutputStream.VideoFormat#H264} video
+     */
+    public H264Remuxer(final QuickTimeOutputStream movie) {
+        this.movie = checkNotNull(movie, "movie");
+        movie.setTimeScale(TIME_SCALE);
+    }
+
+    @Override
+    public void onAccessUnit(final AccessUnit accessUnit) {
+        if (pendingLength == -1 && samples == 0 && !configure(accessUnit)) {
+            skippedUnits++;
+            return;
+        }
+        final SequenceParameterSet current = accessUnit.getSequenceParameterSet();
+        if (current != null && current != sequenceParameterSet) {
+            if (current.getWidth() != sequenceParameterSet.getWidth() || current.getHeight() != sequenceParameterSet.getHeight()) {
+                log().warn("Stream resolution changed from {} to {} during recording, players may not show the rest of it properly.",
+                        sequenceParameterSet, current);
+            }
+            sequenceParameterSet = current;
+        }
+        if (pendingLength != -1) {
+            writePending(toTimeScale(accessUnit.getReceiveTime() - pendingReceiveTime));
+        }
+        hold(accessUnit);
+    }
+
+    @Override
+    public void onEndOfStream() {
+        try {
+            if (pendingLength != -1) {
+                writePending(lastDuration);
+            }
+            if (samples == 0) {
+                log().warn("No keyframe was received, the movie is empty.");
+            }
+            movie.close();
+            log().info("Finished H.264 movie with {} samples and {} keyframes, {} access units before the first keyframe were skipped.",
+                    samples, keyframeIndex.size(), skippedUnits);
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Waits for the movie to be finished after the end of the stream.
+     *
+     * @return whether the movie was finished in time
+     */
+    public boolean awaitFinished(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    public KeyframeIndex getKeyframeIndex() {
+        return keyframeIndex;
+    }
+
+    /**
+     * Describes the movie once the first keyframe with its parameter sets arrives.
+     *
+     * @return whether the movie could be described
+     */
+    private boolean configure(final AccessUnit accessUnit) {
+        if (!accessUnit.isKeyframe() || accessUnit.getSequenceParameterSet() == null || accessUnit.getPps() == null) {
+            return false;
+        }
+        sequenceParameterSet = accessUnit.getSequenceParameterSet();
+        movie.setVideoDimension(sequenceParameterSet.getWidth(), sequenceParameterSet.getHeight());
+        movie.setVideoDecoderConfiguration(AvcConfigurationRecord.create(accessUnit.getSps(), accessUnit.getPps()));
+        firstReceiveTime = accessUnit.getReceiveTime();
+        log().info("Recording H.264 stream: {}.", sequenceParameterSet);
+        return true;
+    }
+
+    private void hold(final AccessUnit accessUnit) {
+        final ByteBuffer sample = accessUnit.getSample();
+        if (pending.length < sample.remaining()) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, sample.remaining()));
+        }
+        pendingLength = sample.remaining();
+        sample.get(pending, 0, pendingLength);
+        pendingKeyframe = accessUnit.isKeyframe();
+        pendingReceiveTime = accessUnit.getReceiveTime();
+        if (pendingKeyframe) {
+            keyframeIndex.add(samples, pendingReceiveTime - firstReceiveTime, accessUnit.getStreamOffset());
+        }
+    }
+
+    private void writePending(final int duration) {
+        checkArgument(duration > 0, "Sample duration should be positive, but was %s", duration);
+        try {
+            movie.writeSample(pending, 0, pendingLength, duration, pendingKeyframe);
+        } catch (IORuntimeException e) {
+            log().error("Failed to write H.264 sample {}.", samples, e);
+            throw e;
+        }
+        samples++;
+        lastDuration = duration;
+        pendingLength = -1;
+    }
+
+    private static int toTimeScale(final long nanos) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, nanos * TIME_SCALE / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(H264Remuxer.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * Keyframes of a stream in the order they were received, for seeking to the closest preceding keyframe by time.
+ * <p>
+ * Entries are kept in parallel primitive arrays rather than objects, so that the index stays compact for recordings of any length.
+ */
+public final class KeyframeIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private int[] sampleNumbers = new int[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private long[] streamOffsets = new long[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Adds a keyframe, which has to follow all keyframes added before.
+     *
+     * @param sampleNumber zero based number of the sample holding the keyframe
+     * @param time         time of the keyframe from the beginning of the stream, in nanoseconds
+     * @param streamOffset offset of the keyframe in the elementary stream
+     */
+    public synchronized void add(final int sampleNumber, final long time, final long streamOffset) {
+        checkArgument(size == 0 || time >= times[size - 1], "Keyframes should be added in order, but %s came after %s", time,
+                size == 0 ? 0 : times[size - 1]);
+        if (size == sampleNumbers.length) {
+            sampleNumbers = Arrays.copyOf(sampleNumbers, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+            streamOffsets = Arrays.copyOf(streamOffsets, size * 2);
+        }
+        sampleNumbers[size] = sampleNumber;
+        times[size] = time;
+        streamOffsets[size] = streamOffset;
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Finds the keyframe to start decoding from in order to show the given moment.
+     *
+     * @param time time from the beginning of the stream, in nanoseconds
+     * @return position of the last keyframe at or before the time, or -1 if the first keyframe comes later
+     */
+    public synchronized int floorIndex(final long time) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (times[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    public synchronized int getSampleNumber(final int index) {
+        checkElementIndex(index, size);
+        return sampleNumbers[index];
+    }
+
+    public synchronized long getTime(final int index) {
+        checkElementIndex(index, size);
+        return times[index];
+    }
+
+    public synchronized long getStreamOffset(final int index) {
+        checkElementIndex(index, size);
+        return streamOffsets[index];
+    }
+}
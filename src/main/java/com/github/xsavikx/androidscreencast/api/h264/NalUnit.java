@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single H.264 NAL unit, starting with its header byte and without the start code prefix.
+ * <p>
+ * The payload is a view of the parser's buffer, not a copy: it is only valid until the listener the unit was handed to returns.
+ */
+public final class NalUnit {
+
+    public static final int TYPE_SLICE = 1;
+    public static final int TYPE_IDR = 5;
+    public static final int TYPE_SEI = 6;
+    public static final int TYPE_SPS = 7;
+    public static final int TYPE_PPS = 8;
+    public static final int TYPE_AUD = 9;
+    private final ByteBuffer data;
+    private final long streamOffset;
+
+    NalUnit(ByteBuffer data, long streamOffset) {
+        this.data = data;
+        this.streamOffset = streamOffset;
+    }
+
+    /**
+     * @return read-only view of the unit, from the header byte to the last byte of the payload
+     */
+    public ByteBuffer getData() {
+        return data.asReadOnlyBuffer();
+    }
+
+    public int getLength() {
+        return data.remaining();
+    }
+
+    /**
+     * @return offset of the header byte from the beginning of the stream; a start code prefix precedes it
+     */
+    public long getStreamOffset() {
+        return streamOffset;
+    }
+
+    public int getType() {
+        return data.get(data.position()) & 0x1f;
+    }
+
+    /**
+     * @return whether the unit holds a slice of a coded picture
+     */
+    public boolean isVcl() {
+        final int type = getType();
+        return type >= TYPE_SLICE && type <= TYPE_IDR;
+    }
+
+    public boolean isKeyframe() {
+        return getType() == TYPE_IDR;
+    }
+
+    /**
+     * @return whether the unit is the first slice of a picture, that is its first_mb_in_slice is 0
+     */
+    public boolean isFirstSlice() {
+        // first_mb_in_slice is the leading ue(v) of the slice header, and 0 is coded as a single 1 bit
+        return isVcl() && data.remaining() > 1 && (data.get(data.position() + 1) & 0x80) != 0;
+    }
+
+    /**
+     * Copies the unit into the array, e.g. to keep a parameter set beyond the listener call.
+     */
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "NalUnit{type=" + getType() + ", length=" + getLength() + ", streamOffset=" + streamOffset + '}';
+    }
+
+    public interface NalUnitListener {
+        void onNalUnit(NalUnit nalUnit);
+
+        void onEndOfStream();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the raw byte sequence payload of a NAL unit bit by bit, skipping emulation prevention bytes on the fly.
+ */
+final class RbspBitReader {
+
+    private final ByteBuffer data;
+    private final int end;
+    private int position;
+    private int zeros;
+    private int currentByte;
+    private int bitsLeft;
+
+    /**
+     * @param nalUnit unit to read, starting right after its header byte
+     */
+    RbspBitReader(final ByteBuffer nalUnit) {
+        this.data = nalUnit;
+        this.position = nalUnit.position() + 1;
+        this.end = nalUnit.limit();
+    }
+
+    int readBit() {
+        if (bitsLeft == 0) {
+            currentByte = nextByte();
+            bitsLeft = 8;
+        }
+        bitsLeft--;
+        return (currentByte >> bitsLeft) & 1;
+    }
+
+    int readBits(final int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 1) | readBit();
+        }
+        return value;
+    }
+
+    boolean readFlag() {
+        return readBit() == 1;
+    }
+
+    /**
+     * Reads an unsigned Exp-Golomb coded value, ue(v).
+     */
+    int readUnsignedExpGolomb() {
+        int leadingZeros = 0;
+        while (readBit() == 0) {
+            leadingZeros++;
+            if (leadingZeros > 31) {
+                throw new IllegalArgumentException("Malformed Exp-Golomb code in NAL unit.");
+            }
+        }
+        return (int) ((1L << leadingZeros) - 1 + readBits(leadingZeros));
+    }
+
+    /**
+     * Reads a signed Exp-Golomb coded value, se(v).
+     */
+    int readSignedExpGolomb() {
+        final int code = readUnsignedExpGolomb();
+        return (code & 1) == 1 ? (code + 1) / 2 : -(code / 2);
+    }
+
+    private int nextByte() {
+        if (position >= end) {
+            throw new IllegalArgumentException("NAL unit ended unexpectedly.");
+        }
+        int value = data.get(position++) & 0xff;
+        if (zeros >= 2 && value == 3) {
+            // emulation prevention byte: 00 00 03 stands for 00 00
+            zeros = 0;
+            if (position >= end) {
+                throw new IllegalArgumentException("NAL unit ended unexpectedly.");
+            }
+            value = data.get(position++) & 0xff;
+        }
+        zeros = value == 0 ? zeros + 1 : 0;
+        return value;
+    }
+}
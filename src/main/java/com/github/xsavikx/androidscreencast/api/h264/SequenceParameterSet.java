@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.h264;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The fields of an H.264 sequence parameter set needed to describe the stream in a container: profile, level, chroma format and the size of
+ * the cropped picture.
+ */
+public final class SequenceParameterSet {
+
+    private final int profileIdc;
+    private final int constraintFlags;
+    private final int levelIdc;
+    private final int chromaFormatIdc;
+    private final int bitDepthLuma;
+    private final int bitDepthChroma;
+    private final int width;
+    private final int height;
+
+    private SequenceParameterSet(int profileIdc, int constraintFlags, int levelIdc, int chromaFormatIdc, int bitDepthLuma, int bitDepthChroma,
+                                 int width, int height) {
+        this.profileIdc = profileIdc;
+        this.constraintFlags = constraintFlags;
+        this.levelIdc = levelIdc;
+        this.chromaFormatIdc = chromaFormatIdc;
+        this.bitDepthLuma = bitDepthLuma;
+        this.bitDepthChroma = bitDepthChroma;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Parses the sequence parameter set as specified in section 7.3.2.1.1 of ITU-T H.264.
+     *
+     * @throws IllegalArgumentException if the unit is not a sequence parameter set or is malformed
+     */
+    public static SequenceParameterSet parse(final NalUnit nalUnit) {
+        checkArgument(nalUnit.getType() == NalUnit.TYPE_SPS, "NAL unit is not a sequence parameter set: %s", nalUnit);
+        final RbspBitReader reader = new RbspBitReader(nalUnit.getData());
+        final int profileIdc = reader.readBits(8);
+        final int constraintFlags = reader.readBits(8);
+        final int levelIdc = reader.readBits(8);
+        reader.readUnsignedExpGolomb(); // seq_parameter_set_id
+        int chromaFormatIdc = 1;
+        boolean separateColourPlane = false;
+        int bitDepthLuma = 8;
+        int bitDepthChroma = 8;
+        if (hasChromaInfo(profileIdc)) {
+            chromaFormatIdc = reader.readUnsignedExpGolomb();
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = reader.readFlag();
+            }
+            bitDepthLuma = 8 + reader.readUnsignedExpGolomb();
+            bitDepthChroma = 8 + reader.readUnsignedExpGolomb();
+            reader.readFlag(); // qpprime_y_zero_transform_bypass_flag
+            if (reader.readFlag()) { // seq_scaling_matrix_present_flag
+                final int lists = chromaFormatIdc != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (reader.readFlag()) {
+                        skipScalingList(reader, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+        reader.readUnsignedExpGolomb(); // log2_max_frame_num_minus4
+        final int picOrderCntType = reader.readUnsignedExpGolomb();
+        if (picOrderCntType == 0) {
+            reader.readUnsignedExpGolomb(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            reader.readFlag(); // delta_pic_order_always_zero_flag
+            reader.readSignedExpGolomb(); // offset_for_non_ref_pic
+            reader.readSignedExpGolomb(); // offset_for_top_to_bottom_field
+            final int cycleLength = reader.readUnsignedExpGolomb();
+            for (int i = 0; i < cycleLength; i++) {
+                reader.readSignedExpGolomb(); // offset_for_ref_frame
+            }
+        }
+        reader.readUnsignedExpGolomb(); // max_num_ref_frames
+        reader.readFlag(); // gaps_in_frame_num_value_allowed_flag
+        final int widthInMbs = reader.readUnsignedExpGolomb() + 1;
+        final int heightInMapUnits = reader.readUnsignedExpGolomb() + 1;
+        final boolean frameMbsOnly = reader.readFlag();
+        if (!frameMbsOnly) {
+            reader.readFlag(); // mb_adaptive_frame_field_flag
+        }
+        reader.readFlag(); // direct_8x8_inference_flag
+        int width = widthInMbs * 16;
+        int height = (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+        if (reader.readFlag()) { // frame_cropping_flag
+            final int chromaArrayType = separateColourPlane ? 0 : chromaFormatIdc;
+            final int cropUnitX = chromaArrayType == 0 ? 1 : (chromaArrayType == 3 ? 1 : 2);
+            final int cropUnitY = (chromaArrayType == 0 ? 1 : (chromaArrayType == 1 ? 2 : 1)) * (frameMbsOnly ? 1 : 2);
+            width -= cropUnitX * (reader.readUnsignedExpGolomb() + reader.readUnsignedExpGolomb());
+            height -= cropUnitY * (reader.readUnsignedExpGolomb() + reader.readUnsignedExpGolomb());
+        }
+        return new SequenceParameterSet(profileIdc, constraintFlags, levelIdc, chromaFormatIdc, bitDepthLuma, bitDepthChroma, width, height);
+    }
+
+    /**
+     * @return whether sequence parameter sets of the profile carry the chroma format, bit depths and scaling matrices
+     */
+    static boolean hasChromaInfo(final int profileIdc) {
+        switch (profileIdc) {
+            case 44:
+            case 83:
+            case 86:
+            case 100:
+            case 110:
+            case 118:
+            case 122:
+            case 128:
+            case 134:
+            case 135:
+            case 138:
+            case 139:
+            case 144:
+            case 244:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void skipScalingList(final RbspBitReader reader, final int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int j = 0; j < size && nextScale != 0; j++) {
+            nextScale = (lastScale + reader.readSignedExpGolomb() + 256) % 256;
+            lastScale = nextScale == 0 ? lastScale : nextScale;
+        }
+    }
+
+    public int getProfileIdc() {
+        return profileIdc;
+    }
+
+    public int getConstraintFlags() {
+        return constraintFlags;
+    }
+
+    public int getLevelIdc() {
+        return levelIdc;
+    }
+
+    public int getChromaFormatIdc() {
+        return chromaFormatIdc;
+    }
+
+    public int getBitDepthLuma() {
+        return bitDepthLuma;
+    }
+
+    public int getBitDepthChroma() {
+        return bitDepthChroma;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        return "SequenceParameterSet{profileIdc=" + profileIdc + ", levelIdc=" + levelIdc + ", width=" + width + ", height=" + height + '}';
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.image;
+
+import com.android.ddmlib.RawImage;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_PARALLEL_CONVERSION_KEY;
+
+/**
+ * Converts captured framebuffers into pooled frames, optionally splitting the work into horizontal bands converted in parallel.
+ * <p>
+ * Rotation is fused into the conversion: the source framebuffer is read once, in strips of {@link #STRIP_ROWS} rows, and every pixel is written
+ * straight into its rotated position. A strip is small enough to stay in cache while it is scattered column by column, and every column of a strip
+ * lands in a contiguous run of the rotated frame, so no rotated copy of the framebuffer is ever allocated.
+ */
+@Singleton
+public final class FrameConverter {
+
+    /**
+     * Smallest amount of pixels worth a separate band. Smaller frames are converted by the calling thread alone.
+     */
+    private static final int MIN_BAND_PIXELS = 256 * 1024;
+    /**
+     * Height of the strips rotated frames are converted in.
+     */
+    private static final int STRIP_ROWS = 32;
+    private final FramePool framePool;
+    private final ForkJoinPool pool;
+    private final boolean parallel;
+
+    @Inject
+    public FrameConverter(final FramePool framePool, @Named(APP_PARALLEL_CONVERSION_KEY) boolean parallel) {
+        this.framePool = framePool;
+        this.parallel = parallel;
+        this.pool = parallel ? new ForkJoinPool(Runtime.getRuntime().availableProcessors()) : null;
+    }
+
+    /**
+     * Converts the raw image into a frame leased from the pool.
+     *
+     * @param rawImage the image to convert
+     * @param rotation counter-clockwise rotation to apply
+     * @return the converted frame holding a single reference owned by the caller
+     */
+    public PooledFrame convert(final RawImage rawImage, final Rotation rotation) {
+        final int width = rotation.swapsDimensions() ? rawImage.height : rawImage.width;
+        final int height = rotation.swapsDimensions() ? rawImage.width : rawImage.height;
+        final PooledFrame frame = framePool.lease(width, height, rawImage.bpp);
+        try {
+            final BandTask task = new BandTask(rawImage, RawImageLayout.of(rawImage), rotation, frame.getPixels(), 0, bandCount(rawImage));
+            if (pool == null) {
+                task.compute();
+            } else {
+                pool.invoke(task);
+            }
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        return frame;
+    }
+
+    /**
+     * Chooses the number of bands from the frame size and the number of cores: at least {@link #MIN_BAND_PIXELS} per band and a couple of bands
+     * per core, so that a core which got descheduled does not hold the whole frame back.
+     */
+    private int bandCount(final RawImage rawImage) {
+        if (!parallel) {
+            return 1;
+        }
+        final int bySize = (rawImage.width * rawImage.height) / MIN_BAND_PIXELS;
+        return Math.max(1, Math.min(Math.min(bySize, pool.getParallelism() * 2), rawImage.height));
+    }
+
+    /**
+     * Converts bands {@code [firstBand, lastBand)} of the source rows, splitting itself in halves until a single band is left.
+     */
+    private static final class BandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 5046232154263186520L;
+        private final transient RawImage rawImage;
+        private final RawImageLayout layout;
+        private final Rotation rotation;
+        private final int[] pixels;
+        private final int firstBand;
+        private final int lastBand;
+        private final int bands;
+
+        BandTask(RawImage rawImage, RawImageLayout layout, Rotation rotation, int[] pixels, int firstBand, int bands) {
+            this(rawImage, layout, rotation, pixels, firstBand, bands, bands);
+        }
+
+        private BandTask(RawImage rawImage, RawImageLayout layout, Rotation rotation, int[] pixels, int firstBand, int lastBand, int bands) {
+            this.rawImage = rawImage;
+            this.layout = layout;
+            this.rotation = rotation;
+            this.pixels = pixels;
+            this.firstBand = firstBand;
+            this.lastBand = lastBand;
+            this.bands = bands;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastBand - firstBand > 1) {
+                final int middle = (firstBand + lastBand) >>> 1;
+                invokeAll(new BandTask(rawImage, layout, rotation, pixels, firstBand, middle, bands),
+                        new BandTask(rawImage, layout, rotation, pixels, middle, lastBand, bands));
+                return;
+            }
+            final int height = rawImage.height;
+            final int firstRow = (int) ((long) height * firstBand / bands);
+            final int lastRow = (int) ((long) height * lastBand / bands);
+            switch (rotation) {
+                case NONE: {
+                    final int width = rawImage.width;
+                    layout.convert(rawImage, firstRow * width, (lastRow - firstRow) * width, pixels, firstRow * width);
+                    break;
+                }
+                case ROTATE_180:
+                    convertUpsideDown(firstRow, lastRow);
+                    break;
+                case ROTATE_90:
+                case ROTATE_270:
+                    convertSideways(firstRow, lastRow);
+                    break;
+                default:
+                    throw new IllegalStateException("Such rotation is not supported: " + rotation);
+            }
+        }
+
+        /**
+         * Source pixel (x, y) goes to (width - 1 - x, height - 1 - y): every row is converted in place of its mirrored row and then reversed.
+         */
+        private void convertUpsideDown(int firstRow, int lastRow) {
+            final int width = rawImage.width;
+            final int height = rawImage.height;
+            for (int y = firstRow; y < lastRow; y++) {
+                final int start = (height - 1 - y) * width;
+                layout.convert(rawImage, y * width, width, pixels, start);
+                for (int left = start, right = start + width - 1; left < right; left++, right--) {
+                    final int pixel = pixels[left];
+                    pixels[left] = pixels[right];
+                    pixels[right] = pixel;
+                }
+            }
+        }
+
+        /**
+         * For 90 degrees source pixel (x, y) goes to (y, width - 1 - x), for 270 degrees to (height - 1 - y, x). Rows of the rotated frame are
+         * {@code height} pixels long, so the pixels of a source column within a strip end up next to each other.
+         */
+        private void convertSideways(int firstRow, int lastRow) {
+            final int width = rawImage.width;
+            final int height = rawImage.height;
+            final boolean counterClockwise = rotation == Rotation.ROTATE_90;
+            final int[] strip = new int[Math.min(STRIP_ROWS, lastRow - firstRow) * width];
+            for (int stripStart = firstRow; stripStart < lastRow; stripStart += STRIP_ROWS) {
+                final int rows = Math.min(STRIP_ROWS, lastRow - stripStart);
+                layout.convert(rawImage, stripStart * width, rows * width, strip, 0);
+                for (int x = 0; x < width; x++) {
+                    if (counterClockwise) {
+                        final int target = (width - 1 - x) * height + stripStart;
+                        for (int row = 0, source = x; row < rows; row++, source += width) {
+                            pixels[target + row] = strip[source];
+                        }
+                    } else {
+                        final int target = x * height + height - 1 - stripStart;
+                        for (int row = 0, source = x; row < rows; row++, source += width) {
+                            pixels[target - row] = strip[source];
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.image;
+
+import com.android.ddmlib.RawImage;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds the regions that changed between consecutive framebuffers.
+ * <p>
+ * The framebuffer is split into {@link #TILE_SIZE} pixel square tiles which are compared word by word with the previous framebuffer. The previous
+ * framebuffer is kept by reference and never copied. Frame sources may decode later frames into recycled pixel data, so the previous framebuffer
+ * is pinned through the callbacks given to the constructor for as long as it is kept. Dirty tiles are merged into rectangles and mapped onto the
+ * rotated frame, so the result can be used by consumers of the converted image directly.
+ * <p>
+ * Not thread-safe: an instance is meant to be owned by a single pipeline stage.
+ */
+public final class FrameDiff {
+
+    public static final int TILE_SIZE = 64;
+    private final Consumer<RawImage> pin;
+    private final Consumer<RawImage> unpin;
+    private RawImage previous;
+    private Rotation previousRotation;
+    private boolean[] dirtyTiles = new boolean[0];
+
+    /**
+     * @param pin   keeps the source of a framebuffer from reusing its pixel data while it is the previous framebuffer
+     * @param unpin releases a framebuffer pinned before
+     */
+    public FrameDiff(final Consumer<RawImage> pin, final Consumer<RawImage> unpin) {
+        this.pin = checkNotNull(pin, "pin");
+        this.unpin = checkNotNull(unpin, "unpin");
+    }
+
+    /**
+     * Compares the framebuffer with the one passed to the previous call and remembers it for the next call.
+     *
+     * @param current  framebuffer just fetched from the device
+     * @param rotation rotation the framebuffer is going to be converted with
+     * @return changed regions in coordinates of the rotated frame; empty if the framebuffer did not change at all, and the whole frame if there is
+     * nothing to compare with or the geometry of the frame has changed
+     */
+    public List<Rectangle> diff(final RawImage current, final Rotation rotation) {
+        checkNotNull(current, "current");
+        checkNotNull(rotation, "rotation");
+        final RawImage last = previous;
+        final Rotation lastRotation = previousRotation;
+        pin.accept(current);
+        previous = current;
+        previousRotation = rotation;
+        if (last == null) {
+            return Collections.singletonList(wholeFrame(current, rotation));
+        }
+        try {
+            if (rotation != lastRotation || !sameGeometry(last, current)) {
+                return Collections.singletonList(wholeFrame(current, rotation));
+            }
+            return findDirtyRegions(last, current, rotation);
+        } finally {
+            unpin.accept(last);
+        }
+    }
+
+    /**
+     * Forgets the previous framebuffer, so that the next one is reported as changed entirely.
+     */
+    public void reset() {
+        if (previous != null) {
+            unpin.accept(previous);
+        }
+        previous = null;
+        previousRotation = null;
+    }
+
+    private List<Rectangle> findDirtyRegions(final RawImage last, final RawImage current, final Rotation rotation) {
+        final int width = current.width;
+        final int height = current.height;
+        final int bytesPerPixel = current.bpp >> 3;
+        final int tileColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        if (dirtyTiles.length < tileColumns) {
+            dirtyTiles = new boolean[tileColumns];
+        }
+        // only equality matters, so words are read in native order to spare the byte swapping
+        final ByteBuffer lastData = ByteBuffer.wrap(last.data).order(ByteOrder.nativeOrder());
+        final ByteBuffer currentData = ByteBuffer.wrap(current.data).order(ByteOrder.nativeOrder());
+        final List<Rectangle> regions = new ArrayList<>();
+        // regions reaching the bottom of the previous tile row, which can still be extended downwards
+        List<Rectangle> open = Collections.emptyList();
+        for (int tileTop = 0; tileTop < height; tileTop += TILE_SIZE) {
+            final int tileBottom = Math.min(tileTop + TILE_SIZE, height);
+            int dirtyCount = 0;
+            for (int column = 0; column < tileColumns; column++) {
+                dirtyTiles[column] = false;
+            }
+            // rows are walked top to bottom so both framebuffers are read sequentially, tiles already known to be dirty are not compared again
+            for (int y = tileTop; y < tileBottom && dirtyCount < tileColumns; y++) {
+                final int rowStart = y * width * bytesPerPixel;
+                for (int column = 0; column < tileColumns; column++) {
+                    if (dirtyTiles[column]) {
+                        continue;
+                    }
+                    final int from = rowStart + column * TILE_SIZE * bytesPerPixel;
+                    final int to = rowStart + Math.min((column + 1) * TILE_SIZE, width) * bytesPerPixel;
+                    if (!equalRange(lastData, currentData, from, to)) {
+                        dirtyTiles[column] = true;
+                        dirtyCount++;
+                    }
+                }
+            }
+            open = mergeTileRow(tileTop, tileBottom - tileTop, tileColumns, width, open, regions);
+        }
+        if (regions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Rectangle> rotated = new ArrayList<>(regions.size());
+        for (Rectangle region : regions) {
+            rotated.add(rotation.rotate(region, width, height));
+        }
+        return rotated;
+    }
+
+    /**
+     * Turns runs of dirty tiles in a tile row into rectangles, extending the rectangles of the row above when they span the same columns.
+     *
+     * @return rectangles reaching the bottom of this tile row
+     */
+    private List<Rectangle> mergeTileRow(int top, int rowHeight, int tileColumns, int width, List<Rectangle> open, List<Rectangle> regions) {
+        final List<Rectangle> reachingBottom = new ArrayList<>();
+        int column = 0;
+        while (column < tileColumns) {
+            if (!dirtyTiles[column]) {
+                column++;
+                continue;
+            }
+            final int first = column;
+            while (column < tileColumns && dirtyTiles[column]) {
+                column++;
+            }
+            final int x = first * TILE_SIZE;
+            final int runWidth = Math.min(column * TILE_SIZE, width) - x;
+            Rectangle region = null;
+            for (Rectangle candidate : open) {
+                if (candidate.x == x && candidate.width == runWidth) {
+                    region = candidate;
+                    break;
+                }
+            }
+            if (region == null) {
+                region = new Rectangle(x, top, runWidth, 0);
+                regions.add(region);
+            }
+            region.height += rowHeight;
+            reachingBottom.add(region);
+        }
+        return reachingBottom;
+    }
+
+    private static boolean equalRange(final ByteBuffer last, final ByteBuffer current, final int from, final int to) {
+        int index = from;
+        for (; index + Long.BYTES <= to; index += Long.BYTES) {
+            if (last.getLong(index) != current.getLong(index)) {
+                return false;
+            }
+        }
+        for (; index < to; index++) {
+            if (last.get(index) != current.get(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameGeometry(final RawImage last, final RawImage current) {
+        return last.width == current.width && last.height == current.height && last.bpp == current.bpp && last.data.length == current.data.length;
+    }
+
+    private static Rectangle wholeFrame(final RawImage rawImage, final Rotation rotation) {
+        return rotation.rotate(new Rectangle(0, 0, rawImage.width, rawImage.height), rawImage.width, rawImage.height);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.image;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Recycles converted frames so that the capture loop does not allocate a new multi-megabyte image for every frame.
+ * <p>
+ * Frames are keyed by width, height and bits per pixel of the source framebuffer. As the screen geometry only changes on rotation or on a
+ * resolution switch, frames of any other geometry are discarded as soon as a new one is requested.
+ */
+@Singleton
+public final class FramePool {
+
+    /**
+     * Number of idle frames kept per geometry: one on screen, one in the recorder and one in flight in every pipeline stage.
+     */
+    private static final int MAX_IDLE_FRAMES = 4;
+    private final Map<Key, ArrayDeque<PooledFrame>> idleFrames = new HashMap<>();
+    private long allocatedFrames;
+
+    @Inject
+    public FramePool() {
+    }
+
+    /**
+     * Leases a frame of the given geometry. The returned frame holds a single reference owned by the caller.
+     *
+     * @param width  frame width in pixels
+     * @param height frame height in pixels
+     * @param bpp    bits per pixel of the source framebuffer
+     * @return the leased frame. Its pixels contain leftovers of a previous frame.
+     */
+    public PooledFrame lease(int width, int height, int bpp) {
+        checkArgument(width > 0 && height > 0, "width and height must be greater than 0, but were: width=%s, height=%s", width, height);
+        final Key key = new Key(width, height, bpp);
+        PooledFrame frame;
+        synchronized (this) {
+            if (!idleFrames.containsKey(key)) {
+                idleFrames.clear();
+                idleFrames.put(key, new ArrayDeque<>(MAX_IDLE_FRAMES));
+            }
+            frame = idleFrames.get(key).pollFirst();
+            if (frame == null) {
+                allocatedFrames++;
+            }
+        }
+        if (frame == null) {
+            frame = new PooledFrame(this, key);
+        }
+        frame.lease();
+        return frame;
+    }
+
+    synchronized void recycle(PooledFrame frame) {
+        final ArrayDeque<PooledFrame> frames = idleFrames.get(frame.getKey());
+        if (frames != null && frames.size() < MAX_IDLE_FRAMES) {
+            frames.addFirst(frame);
+        }
+    }
+
+    /**
+     * @return total number of frames allocated by the pool so far
+     */
+    public synchronized long getAllocatedFrames() {
+        return allocatedFrames;
+    }
+
+    static final class Key {
+
+        final int width;
+        final int height;
+        final int bpp;
+
+        Key(int width, int height, int bpp) {
+            this.width = width;
+            this.height = height;
+            this.bpp = bpp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return width == key.width && height == key.height && bpp == key.bpp;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + bpp;
+        }
+    }
+}
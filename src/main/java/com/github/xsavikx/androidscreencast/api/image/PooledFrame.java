@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A converted screen frame leased from a {@link FramePool}.
+ * <p>
+ * The frame is reference counted: it is leased with a count of one, every additional consumer calls {@link #retain()} before it takes the frame over
+ * and {@link #release()} once it is done with it. When the last reference is released the frame goes back to the pool and its pixels may be
+ * overwritten by the next capture, so the image must not be used after the release.
+ */
+public final class PooledFrame {
+
+    private final FramePool pool;
+    private final FramePool.Key key;
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final AtomicInteger references = new AtomicInteger();
+
+    PooledFrame(FramePool pool, FramePool.Key key) {
+        this.pool = pool;
+        this.key = key;
+        this.image = new BufferedImage(key.width, key.height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    FramePool.Key getKey() {
+        return key;
+    }
+
+    void lease() {
+        checkState(references.compareAndSet(0, 1), "Frame is still in use.");
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return pixels of the image in {@link BufferedImage#TYPE_INT_RGB} layout, row by row
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return key.width;
+    }
+
+    public int getHeight() {
+        return key.height;
+    }
+
+    /**
+     * Registers one more consumer of the frame.
+     *
+     * @return this frame
+     */
+    public PooledFrame retain() {
+        final int previous = references.getAndIncrement();
+        checkState(previous > 0, "Frame was already released.");
+        return this;
+    }
+
+    /**
+     * Releases one reference to the frame, returning it to the pool once the last consumer is done.
+     */
+    public void release() {
+        final int remaining = references.decrementAndGet();
+        checkState(remaining >= 0, "Frame was released more times than retained.");
+        if (remaining == 0) {
+            pool.recycle(this);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.image;
+
+import com.android.ddmlib.RawImage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pixel layouts of adb framebuffers, each with a conversion kernel writing {@link java.awt.image.BufferedImage#TYPE_INT_RGB} pixels.
+ * <p>
+ * The layout is detected once per frame from the channel offsets and lengths of the {@link RawImage}, so the kernels themselves are tight loops
+ * over primitive arrays without any per-pixel dispatch. Alpha is ignored, the device screen is always opaque.
+ */
+enum RawImageLayout {
+    /**
+     * Bytes in memory: R, G, B, A. The most common layout of 32 bit framebuffers.
+     */
+    RGBA_8888 {
+        @Override
+        void convert(RawImage rawImage, int from, int count, int[] pixels, int offset) {
+            copyLittleEndianInts(rawImage.data, from, count, pixels, offset);
+            for (int i = offset, end = offset + count; i < end; i++) {
+                final int value = pixels[i];
+                pixels[i] = (value & 0xff) << 16 | (value & 0xff00) | (value >>> 16) & 0xff;
+            }
+        }
+    },
+    /**
+     * Bytes in memory: R, G, B and an unused byte.
+     */
+    RGBX_8888 {
+        @Override
+        void convert(RawImage rawImage, int from, int count, int[] pixels, int offset) {
+            RGBA_8888.convert(rawImage, from, count, pixels, offset);
+        }
+    },
+    /**
+     * Bytes in memory: B, G, R, A. Read as a little endian int this is already the {@code 0xAARRGGBB} layout, and {@code TYPE_INT_RGB} ignores the
+     * top byte, so the conversion is a plain copy.
+     */
+    BGRA_8888 {
+        @Override
+        void convert(RawImage rawImage, int from, int count, int[] pixels, int offset) {
+            copyLittleEndianInts(rawImage.data, from, count, pixels, offset);
+        }
+    },
+    /**
+     * Little endian 16 bit pixels with 5 bits of red, 6 bits of green and 5 bits of blue.
+     */
+    RGB_565 {
+        @Override
+        void convert(RawImage rawImage, int from, int count, int[] pixels, int offset) {
+            final byte[] data = rawImage.data;
+            for (int i = offset, end = offset + count, position = from * 2; i < end; i++, position += 2) {
+                final int value = (data[position] & 0xff) | (data[position + 1] & 0xff) << 8;
+                pixels[i] = (value & 0xf800) << 8 | (value & 0x07e0) << 5 | (value & 0x001f) << 3;
+            }
+        }
+    },
+    /**
+     * Any other 32 bit layout, described by the channel offsets and lengths of the raw image.
+     */
+    GENERIC_32 {
+        @Override
+        void convert(RawImage rawImage, int from, int count, int[] pixels, int offset) {
+            final byte[] data = rawImage.data;
+            final int redShift = rawImage.red_offset;
+            final int redMask = (1 << rawImage.red_length) - 1;
+            final int redScale = 8 - rawImage.red_length;
+            final int greenShift = rawImage.green_offset;
+            final int greenMask = (1 << rawImage.green_length) - 1;
+            final int greenScale = 8 - rawImage.green_length;
+            final int blueShift = rawImage.blue_offset;
+            final int blueMask = (1 << rawImage.blue_length) - 1;
+            final int blueScale = 8 - rawImage.blue_length;
+            for (int i = offset, end = offset + count, position = from * 4; i < end; i++, position += 4) {
+                final int value = (data[position] & 0xff)
+                        | (data[position + 1] & 0xff) << 8
+                        | (data[position + 2] & 0xff) << 16
+                        | (data[position + 3] & 0xff) << 24;
+                final int red = ((value >>> redShift) & redMask) << redScale;
+                final int green = ((value >>> greenShift) & greenMask) << greenScale;
+                final int blue = ((value >>> blueShift) & blueMask) << blueScale;
+                pixels[i] = red << 16 | green << 8 | blue;
+            }
+        }
+    };
+
+    private static final int SIXTEEN_BIT_IMAGE = 16;
+    private static final int THIRTY_TWO_BIT_IMAGE = 32;
+
+    /**
+     * Converts {@code count} consecutive pixels of the raw image, counted row by row, into {@code pixels}.
+     *
+     * @param rawImage source framebuffer
+     * @param from     index of the first raw image pixel to convert
+     * @param count    number of pixels to convert
+     * @param pixels   destination in {@code TYPE_INT_RGB} layout
+     * @param offset   index of {@code pixels} to write the first converted pixel to
+     */
+    abstract void convert(RawImage rawImage, int from, int count, int[] pixels, int offset);
+
+    /**
+     * Detects the layout of the given raw image.
+     *
+     * @param rawImage raw image to inspect
+     * @return the layout of the raw image pixels
+     * @throws IllegalStateException if the raw image has an unsupported bpp
+     */
+    static RawImageLayout of(RawImage rawImage) {
+        switch (rawImage.bpp) {
+            case SIXTEEN_BIT_IMAGE:
+                return RGB_565;
+            case THIRTY_TWO_BIT_IMAGE:
+                if (hasBytes(rawImage, 0, 8, 16)) {
+                    return rawImage.alpha_length == 0 ? RGBX_8888 : RGBA_8888;
+                }
+                if (hasBytes(rawImage, 16, 8, 0)) {
+                    return BGRA_8888;
+                }
+                return GENERIC_32;
+            default:
+                throw new IllegalStateException("Raw image contain wrong bpp: " + rawImage.bpp);
+        }
+    }
+
+    private static boolean hasBytes(RawImage rawImage, int redOffset, int greenOffset, int blueOffset) {
+        return rawImage.red_offset == redOffset && rawImage.red_length == 8
+                && rawImage.green_offset == greenOffset && rawImage.green_length == 8
+                && rawImage.blue_offset == blueOffset && rawImage.blue_length == 8;
+    }
+
+    private static void copyLittleEndianInts(byte[] data, int from, int count, int[] pixels, int offset) {
+        final ByteBuffer buffer = ByteBuffer.wrap(data, from * 4, count * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().get(pixels, offset, count);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.image;
+
+import java.awt.*;
+
+/**
+ * Counter-clockwise rotation applied to the device framebuffer before it is shown.
+ * <p>
+ * {@link #ROTATE_90} matches {@link com.android.ddmlib.RawImage#getRotated()}, which is what the landscape mode has always used.
+ */
+public enum Rotation {
+    NONE(0),
+    ROTATE_90(90),
+    ROTATE_180(180),
+    ROTATE_270(270);
+
+    private final int degrees;
+
+    Rotation(int degrees) {
+        this.degrees = degrees;
+    }
+
+    public int getDegrees() {
+        return degrees;
+    }
+
+    /**
+     * @return whether the rotated frame has width and height of the source frame swapped
+     */
+    public boolean swapsDimensions() {
+        return this == ROTATE_90 || this == ROTATE_270;
+    }
+
+    /**
+     * Maps a region of the source frame onto the rotated frame.
+     *
+     * @param region region in coordinates of the source frame
+     * @param width  width of the source frame
+     * @param height height of the source frame
+     * @return the same region in coordinates of the rotated frame
+     */
+    public Rectangle rotate(final Rectangle region, final int width, final int height) {
+        switch (this) {
+            case NONE:
+                return new Rectangle(region);
+            case ROTATE_90:
+                return new Rectangle(region.y, width - region.x - region.width, region.height, region.width);
+            case ROTATE_180:
+                return new Rectangle(width - region.x - region.width, height - region.y - region.height, region.width, region.height);
+            case ROTATE_270:
+                return new Rectangle(height - region.y - region.height, region.x, region.height, region.width);
+            default:
+                throw new IllegalStateException("Such rotation is not supported: " + this);
+        }
+    }
+
+    /**
+     * Maps a region of the rotated frame back onto the source frame, reversing {@link #rotate(Rectangle, int, int)}.
+     *
+     * @param region region in coordinates of the rotated frame
+     * @param width  width of the source frame
+     * @param height height of the source frame
+     * @return the same region in coordinates of the source frame
+     */
+    public Rectangle unrotate(final Rectangle region, final int width, final int height) {
+        final Rotation inverse = ofDegrees(-degrees);
+        return swapsDimensions() ? inverse.rotate(region, height, width) : inverse.rotate(region, width, height);
+    }
+
+    /**
+     * Returns the rotation by the given amount of degrees.
+     *
+     * @param degrees counter-clockwise rotation, any multiple of 90 including negative ones
+     * @return matching rotation
+     * @throws IllegalArgumentException if degrees is not a multiple of 90
+     */
+    public static Rotation ofDegrees(int degrees) {
+        final int normalized = ((degrees % 360) + 360) % 360;
+        for (Rotation rotation : values()) {
+            if (rotation.degrees == normalized) {
+                return rotation;
+            }
+        }
+        throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees, but was " + degrees);
+    }
+}
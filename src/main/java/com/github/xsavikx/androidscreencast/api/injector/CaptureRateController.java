@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.injector;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.ADB_COMMAND_TIMEOUT_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_CAPTURE_FPS_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_CAPTURE_IDLE_FPS_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_CAPTURE_IN_FLIGHT_FRAMES_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_CAPTURE_KEEPALIVE_INTERVAL_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_FPS_KEY;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Paces the screen capture fetch stage.
+ * <p>
+ * Frames are fetched at the target rate as long as the screen keeps changing, with no more than the in-flight budget of frames fetched but not
+ * yet delivered. Once the screen has been static for a while the rate falls back step by step to the idle rate, and any user input brings it back
+ * to the target rate at once. While capture is paused, e.g. because the window is minimized, frames are only fetched at the recording rate if
+ * a recording is running, or now and then to keep the picture alive, if that is enabled. A running recording never gets fewer frames than its
+ * own rate, whatever the screen does. Failed fetches are retried after an exponentially growing delay with jitter, and the ADB command
+ * timeout raised after timeouts decays back to its default one second per successful fetch.
+ */
+@Singleton
+public final class CaptureRateController {
+
+    /**
+     * Amount of unchanged frames in a row after which the capture rate starts falling back.
+     */
+    private static final int STATIC_FRAMES_BEFORE_BACKOFF = 15;
+    private static final long INITIAL_ERROR_BACKOFF_MILLIS = 100;
+    private static final long MAX_ERROR_BACKOFF_MILLIS = 5000;
+    /**
+     * Interval meaning that no frames should be fetched at all.
+     */
+    private static final long NEVER = Long.MAX_VALUE;
+    private final long targetIntervalNanos;
+    private final long idleIntervalNanos;
+    private final long recordingIntervalNanos;
+    private final long keepAliveIntervalNanos;
+    private final int inFlightBudget;
+    private final long defaultCommandTimeout;
+    private long intervalNanos;
+    /**
+     * {@link System#nanoTime()} at the previous fetch, only meaningful once {@link #fetched} is set, as the origin of that clock is arbitrary.
+     */
+    private long lastFetchStart;
+    private boolean fetched;
+    private int inFlightFrames;
+    private int staticFrames;
+    private int consecutiveErrors;
+    private long commandTimeout;
+    private boolean paused;
+    private boolean recording;
+
+    @Inject
+    public CaptureRateController(@Named(APP_CAPTURE_FPS_KEY) int targetFps,
+                                 @Named(APP_CAPTURE_IDLE_FPS_KEY) int idleFps,
+                                 @Named(APP_CAPTURE_IN_FLIGHT_FRAMES_KEY) int inFlightBudget,
+                                 @Named(APP_CAPTURE_KEEPALIVE_INTERVAL_KEY) long keepAliveInterval,
+                                 @Named(APP_RECORDING_FPS_KEY) int recordingFps,
+                                 @Named(ADB_COMMAND_TIMEOUT_KEY) long adbCommandTimeout) {
+        checkArgument(targetFps > 0, "Target capture rate should be positive, but was %s", targetFps);
+        checkArgument(idleFps > 0 && idleFps <= targetFps, "Idle capture rate should be positive and not above %s, but was %s", targetFps, idleFps);
+        checkArgument(inFlightBudget > 0, "In-flight frames budget should be positive, but was %s", inFlightBudget);
+        checkArgument(keepAliveInterval >= 0, "Keepalive interval should not be negative, but was %s", keepAliveInterval);
+        checkArgument(recordingFps > 0, "Recording rate should be positive, but was %s", recordingFps);
+        this.targetIntervalNanos = TimeUnit.SECONDS.toNanos(1) / targetFps;
+        this.idleIntervalNanos = TimeUnit.SECONDS.toNanos(1) / idleFps;
+        this.recordingIntervalNanos = TimeUnit.SECONDS.toNanos(1) / recordingFps;
+        this.keepAliveIntervalNanos = keepAliveInterval == 0 ? NEVER : TimeUnit.SECONDS.toNanos(keepAliveInterval);
+        this.inFlightBudget = inFlightBudget;
+        this.defaultCommandTimeout = adbCommandTimeout;
+        this.commandTimeout = adbCommandTimeout;
+        this.intervalNanos = targetIntervalNanos;
+    }
+
+    /**
+     * Blocks until the next frame may be fetched: the current capture interval has passed since the previous fetch and the in-flight budget
+     * allows one more frame. The caller has to report the frame through {@link #frameCompleted()} once it leaves the pipeline.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public synchronized void awaitNextFetch() throws InterruptedException {
+        while (true) {
+            final long remaining;
+            if (intervalNanos == NEVER) {
+                remaining = NEVER;
+            } else {
+                remaining = fetched ? lastFetchStart + intervalNanos - System.nanoTime() : 0;
+            }
+            if (inFlightFrames >= inFlightBudget || remaining == NEVER) {
+                wait();
+            } else if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } else {
+                break;
+            }
+        }
+        lastFetchStart = System.nanoTime();
+        fetched = true;
+        inFlightFrames++;
+    }
+
+    /**
+     * Gives back the in-flight budget taken by a fetch, whether the frame was delivered, dropped or not fetched at all.
+     */
+    public synchronized void frameCompleted() {
+        if (inFlightFrames > 0) {
+            inFlightFrames--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reports whether the last converted frame differed from the previous one.
+     */
+    public synchronized void frameAnalyzed(final boolean changed) {
+        if (changed) {
+            staticFrames = 0;
+            intervalNanos = baseInterval();
+        } else if (++staticFrames > STATIC_FRAMES_BEFORE_BACKOFF) {
+            final long longest = Math.max(baseInterval(), recording ? recordingIntervalNanos : idleIntervalNanos);
+            intervalNanos = Math.min(Math.max(intervalNanos, intervalNanos * 2), longest);
+        }
+    }
+
+    /**
+     * Reports user input sent to the device: the reaction is expected on the screen soon, so the static screen backoff is cancelled immediately.
+     */
+    public synchronized void userInputSent() {
+        updateInterval();
+    }
+
+    /**
+     * Pauses or resumes the capture, e.g. when the screen is hidden from the user or shown again.
+     */
+    public synchronized void setPaused(final boolean paused) {
+        this.paused = paused;
+        updateInterval();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Reports whether a recording is running, which keeps frames coming at the recording rate even while capture is paused.
+     */
+    public synchronized void setRecording(final boolean recording) {
+        this.recording = recording;
+        updateInterval();
+    }
+
+    private void updateInterval() {
+        staticFrames = 0;
+        intervalNanos = baseInterval();
+        notifyAll();
+    }
+
+    /**
+     * @return interval between fetches while the screen keeps changing
+     */
+    private long baseInterval() {
+        if (!paused) {
+            return targetIntervalNanos;
+        }
+        return recording ? recordingIntervalNanos : keepAliveIntervalNanos;
+    }
+
+    /**
+     * @return timeout in seconds for the next fetch
+     */
+    public synchronized long getCommandTimeout() {
+        return commandTimeout;
+    }
+
+    /**
+     * Reports a successful fetch: resets the error backoff and lets a raised command timeout decay by a second.
+     */
+    public synchronized void fetchSucceeded() {
+        consecutiveErrors = 0;
+        if (commandTimeout > defaultCommandTimeout) {
+            commandTimeout--;
+        }
+    }
+
+    /**
+     * Reports a fetch which timed out: the next fetch gets a second more.
+     */
+    public synchronized void fetchTimedOut() {
+        commandTimeout++;
+    }
+
+    /**
+     * Reports a failed fetch.
+     *
+     * @return delay in milliseconds before the next attempt: growing exponentially with the amount of failures in a row, with the upper half
+     * of it chosen randomly so that retries do not fall into lockstep with whatever makes the device reject commands
+     */
+    public synchronized long fetchFailed() {
+        final int exponent = Math.min(consecutiveErrors++, 16);
+        final long backoff = Math.min(INITIAL_ERROR_BACKOFF_MILLIS << exponent, MAX_ERROR_BACKOFF_MILLIS);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+}
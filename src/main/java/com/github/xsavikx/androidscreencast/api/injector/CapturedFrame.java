@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.injector;
+
+import com.android.ddmlib.RawImage;
+import com.github.xsavikx.androidscreencast.api.image.PooledFrame;
+import com.github.xsavikx.androidscreencast.api.image.Rotation;
+
+import java.awt.*;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single frame travelling through the screen capture pipeline.
+ * <p>
+ * The fetch stage fills in the raw framebuffer, the conversion stage attaches the converted image leased from the frame pool. The pipeline owns
+ * one reference to the converted image, which is released once the frame has been delivered or dropped. Frames identical to the previous one
+ * share its converted image and have no dirty regions.
+ */
+final class CapturedFrame {
+
+    private final RawImage rawImage;
+    private final Rotation rotation;
+    private final long fetchStartTime;
+    private final long captureTime;
+    private PooledFrame image;
+    private long sequence;
+    private List<Rectangle> dirtyRegions = Collections.emptyList();
+
+    CapturedFrame(RawImage rawImage, Rotation rotation, long fetchStartTime, long captureTime) {
+        this.rawImage = rawImage;
+        this.rotation = rotation;
+        this.fetchStartTime = fetchStartTime;
+        this.captureTime = captureTime;
+    }
+
+    RawImage getRawImage() {
+        return rawImage;
+    }
+
+    Rotation getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at the moment the fetch of the frame started
+     */
+    long getFetchStartTime() {
+        return fetchStartTime;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at the moment the frame was fetched from the device
+     */
+    long getCaptureTime() {
+        return captureTime;
+    }
+
+    PooledFrame getImage() {
+        return image;
+    }
+
+    void setImage(PooledFrame image) {
+        this.image = image;
+    }
+
+    /**
+     * @return number of the frame among the frames which left the conversion stage
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return regions of the converted image which differ from the previous converted frame
+     */
+    List<Rectangle> getDirtyRegions() {
+        return dirtyRegions;
+    }
+
+    void setDirtyRegions(List<Rectangle> dirtyRegions) {
+        this.dirtyRegions = dirtyRegions;
+    }
+
+    /**
+     * Releases the reference the pipeline holds to the converted image, if there is one.
+     */
+    void release() {
+        if (image != null) {
+            image.release();
+            image = null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.injector;
+
+import com.github.xsavikx.androidscreencast.api.image.PooledFrame;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Latest-value hand-over of frames to the Event Dispatch Thread, in the spirit of {@code ui.worker.AccumulativeRunnable}.
+ * <p>
+ * At most one delivery waits for the Event Dispatch Thread at any time. A frame posted while the previous one is still waiting supersedes it:
+ * the older frame is released and counted as dropped, and its dirty regions are merged into the newer frame, as the panel has not painted them
+ * yet. A busy Event Dispatch Thread therefore paints only the newest frame once it gets to it, instead of working through a backlog of stale
+ * ones.
+ */
+final class DisplayMailbox implements Runnable {
+
+    /**
+     * Merged dirty regions beyond this count are replaced by a single region covering the whole frame.
+     */
+    private static final int MAX_DIRTY_REGIONS = 64;
+    private final Consumer<Delivery> consumer;
+    private final Runnable dropListener;
+    private Delivery pending;
+    private long droppedFrames;
+
+    /**
+     * @param consumer     shows a delivery on the Event Dispatch Thread and takes over its image reference
+     * @param dropListener called for every superseded delivery
+     */
+    DisplayMailbox(Consumer<Delivery> consumer, Runnable dropListener) {
+        this.consumer = consumer;
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Hands the delivery over to the Event Dispatch Thread, replacing the one waiting there, if any.
+     */
+    void post(final Delivery delivery) {
+        final Delivery superseded;
+        synchronized (this) {
+            superseded = pending;
+            pending = superseded == null ? delivery : delivery.mergeDirtyRegions(superseded);
+            if (superseded != null) {
+                droppedFrames++;
+            }
+        }
+        if (superseded == null) {
+            SwingUtilities.invokeLater(this);
+        } else {
+            superseded.image.release();
+            dropListener.run();
+        }
+    }
+
+    @Override
+    public void run() {
+        final Delivery delivery;
+        synchronized (this) {
+            delivery = pending;
+            pending = null;
+        }
+        if (delivery != null) {
+            consumer.accept(delivery);
+        }
+    }
+
+    /**
+     * @return number of frames superseded before the Event Dispatch Thread got to them
+     */
+    synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * A frame on its way to the listener. Holds a reference to the image, owned by whoever takes the delivery.
+     */
+    static final class Delivery {
+
+        private final ScreenCaptureRunnable.ScreenCaptureListener listener;
+        private final PooledFrame image;
+        private final boolean landscape;
+        private final List<Rectangle> dirtyRegions;
+        private final long fetchStartTime;
+        private final long postTime;
+
+        Delivery(ScreenCaptureRunnable.ScreenCaptureListener listener, PooledFrame image, boolean landscape, List<Rectangle> dirtyRegions,
+                 long fetchStartTime, long postTime) {
+            this.listener = listener;
+            this.image = image;
+            this.landscape = landscape;
+            this.dirtyRegions = dirtyRegions;
+            this.fetchStartTime = fetchStartTime;
+            this.postTime = postTime;
+        }
+
+        private Delivery mergeDirtyRegions(final Delivery older) {
+            final List<Rectangle> merged;
+            if (older.dirtyRegions.size() + dirtyRegions.size() > MAX_DIRTY_REGIONS) {
+                merged = Collections.singletonList(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+            } else {
+                merged = new ArrayList<>(older.dirtyRegions.size() + dirtyRegions.size());
+                merged.addAll(older.dirtyRegions);
+                merged.addAll(dirtyRegions);
+            }
+            return new Delivery(listener, image, landscape, merged, fetchStartTime, postTime);
+        }
+
+        ScreenCaptureRunnable.ScreenCaptureListener getListener() {
+            return listener;
+        }
+
+        PooledFrame getImage() {
+            return image;
+        }
+
+        boolean isLandscape() {
+            return landscape;
+        }
+
+        List<Rectangle> getDirtyRegions() {
+            return dirtyRegions;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} the fetch of the frame started at
+         */
+        long getFetchStartTime() {
+            return fetchStartTime;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} the frame was posted to the Event Dispatch Thread at
+         */
+        long getPostTime() {
+            return postTime;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.injector;
+
+import com.android.ddmlib.RawImage;
+
+/**
+ * Gets to see every frame fetched from the device, including frames dropped later on because a pipeline stage fell behind.
+ * <p>
+ * Observers are called on the fetch thread before the frame moves on, so they have to be quick and must not keep the raw image: its buffer may
+ * be reused for a later frame.
+ */
+public interface FrameObserver {
+
+    /**
+     * @param rawImage        the fetched frame
+     * @param fetchStartNanos {@link System#nanoTime()} the fetch of the frame started at
+     * @param fetchedNanos    {@link System#nanoTime()} the frame was received at
+     */
+    void onFrameFetched(RawImage rawImage, long fetchStartNanos, long fetchedNanos);
+}
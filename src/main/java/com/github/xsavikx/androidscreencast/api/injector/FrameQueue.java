@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.injector;
+
+import java.util.ArrayDeque;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded hand-off queue between two stages of the screen capture pipeline.
+ * <p>
+ * The producing stage never blocks: when the queue is full the oldest frame is dropped in favour of the newest one, since for a live screen only the
+ * most recent frame matters. The consuming stage blocks until a frame arrives or the queue is closed.
+ *
+ * @param <T> the type of the frames passed between the stages
+ */
+final class FrameQueue<T> {
+
+    private final ArrayDeque<T> frames;
+    private final int capacity;
+    private long droppedFrames;
+    private boolean closed;
+
+    FrameQueue(int capacity) {
+        checkArgument(capacity > 0, "capacity must be greater than 0, but was %s", capacity);
+        this.capacity = capacity;
+        this.frames = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Appends the frame to the queue, dropping the oldest queued frame if the queue is full.
+     *
+     * @param frame the frame to append
+     * @return the dropped frame or {@code null} if nothing was dropped
+     */
+    synchronized T offer(T frame) {
+        checkNotNull(frame, "Frame should not be null.");
+        if (closed) {
+            return frame;
+        }
+        T dropped = null;
+        if (frames.size() == capacity) {
+            dropped = frames.pollFirst();
+            droppedFrames++;
+        }
+        frames.addLast(frame);
+        notifyAll();
+        return dropped;
+    }
+
+    /**
+     * Waits for the next frame.
+     *
+     * @return the oldest queued frame or {@code null} if the queue was closed
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    synchronized T take() throws InterruptedException {
+        while (frames.isEmpty() && !closed) {
+            wait();
+        }
+        return frames.pollFirst();
+    }
+
+    /**
+     * Closes the queue and wakes up the consuming stage. Frames which are still queued remain available to {@link #take()}.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
@@ -17,28 +17,65 @@
 
 package com.github.xsavikx.androidscreencast.api.injector;
 
+import com.github.xsavikx.androidscreencast.api.image.Rotation;
+import com.github.xsavikx.androidscreencast.api.metrics.FrameMetricsReporter;
+
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import java.io.File;
 
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_FASTSTART_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_STREAM_KEY;
+
 @Singleton
 public final class Injector {
 
     private final ScreenCaptureRunnable screenCaptureRunnable;
+    private final CaptureRateController rateController;
+    private final StreamRecorder streamRecorder;
+    private final FrameMetricsReporter metricsReporter;
+    private final boolean recordStream;
+    private final boolean fastStart;
     private final Thread screenCaptureThread;
+    private final Thread frameConverterThread;
+    private final Thread frameDeliveryThread;
 
     @Inject
-    public Injector(final ScreenCaptureRunnable screenCaptureRunnable) {
+    public Injector(final ScreenCaptureRunnable screenCaptureRunnable,
+                    final CaptureRateController rateController,
+                    final StreamRecorder streamRecorder,
+                    final FrameMetricsReporter metricsReporter,
+                    @Named(APP_RECORDING_STREAM_KEY) boolean recordStream,
+                    @Named(APP_RECORDING_FASTSTART_KEY) boolean fastStart) {
         this.screenCaptureRunnable = screenCaptureRunnable;
-        this.screenCaptureThread = new Thread(screenCaptureRunnable, "Screen Capturer");
-        this.screenCaptureThread.setDaemon(true);
+        this.rateController = rateController;
+        this.streamRecorder = streamRecorder;
+        this.metricsReporter = metricsReporter;
+        this.recordStream = recordStream;
+        this.fastStart = fastStart;
+        this.screenCaptureThread = daemonThread(screenCaptureRunnable, "Screen Capturer");
+        this.frameConverterThread = daemonThread(screenCaptureRunnable.conversionStage(), "Frame Converter");
+        this.frameDeliveryThread = daemonThread(screenCaptureRunnable.deliveryStage(), "Frame Delivery");
+    }
+
+    private static Thread daemonThread(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
     }
 
     public void stop() {
         screenCaptureRunnable.stop();
+        // the capturer may be waiting for its next turn
+        screenCaptureThread.interrupt();
+        metricsReporter.stop();
     }
 
     public void start() {
+        metricsReporter.start();
+        frameDeliveryThread.start();
+        frameConverterThread.start();
         screenCaptureThread.start();
     }
 
@@ -46,15 +83,48 @@ public final class Injector {
         this.screenCaptureRunnable.setListener(listener);
     }
 
+    /**
+     * Starts recording the screen into the movie file: either the captured frames or, if configured, the video encoded by the device itself.
+     */
     public void startRecording(final File file) {
-        screenCaptureRunnable.startRecording(file);
+        if (recordStream) {
+            streamRecorder.start(file, fastStart);
+            return;
+        }
+        screenCaptureRunnable.startRecording(file, fastStart);
+        rateController.setRecording(true);
     }
 
     public void stopRecording() {
+        if (recordStream) {
+            streamRecorder.stop();
+            return;
+        }
+        rateController.setRecording(false);
         screenCaptureRunnable.stopRecording();
     }
 
     public void toggleOrientation() {
         screenCaptureRunnable.toggleOrientation();
     }
+
+    public void setRotation(final Rotation rotation) {
+        screenCaptureRunnable.setRotation(rotation);
+    }
+
+    /**
+     * Stops pulling frames from the device while nobody looks at them, e.g. while the window is minimized. A running recording keeps getting
+     * frames at its own rate, and a keepalive frame is grabbed now and then if configured.
+     */
+    public void pause() {
+        rateController.setPaused(true);
+    }
+
+    public void resume() {
+        rateController.setPaused(false);
+    }
+
+    public boolean isPaused() {
+        return rateController.isPaused();
+    }
 }
@@ -18,111 +18,289 @@
 package com.github.xsavikx.androidscreencast.api.injector;
 
 import com.android.ddmlib.AdbCommandRejectedException;
-import com.android.ddmlib.IDevice;
 import com.android.ddmlib.RawImage;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
 import com.android.ddmlib.TimeoutException;
-import com.github.xsavikx.androidscreencast.api.image.ImageUtils;
-import com.github.xsavikx.androidscreencast.api.recording.QuickTimeOutputStream;
-import com.github.xsavikx.androidscreencast.exception.IORuntimeException;
+import com.github.xsavikx.androidscreencast.api.capture.FrameSource;
+import com.github.xsavikx.androidscreencast.api.image.FrameConverter;
+import com.github.xsavikx.androidscreencast.api.image.FrameDiff;
+import com.github.xsavikx.androidscreencast.api.image.PooledFrame;
+import com.github.xsavikx.androidscreencast.api.image.Rotation;
+import com.github.xsavikx.androidscreencast.api.metrics.FrameMetrics;
+import com.github.xsavikx.androidscreencast.api.metrics.FrameStage;
+import com.github.xsavikx.androidscreencast.api.recording.FrameRecorder;
+import com.github.xsavikx.androidscreencast.api.recording.FrameRecorderFactory;
 import org.slf4j.Logger;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Singleton;
-import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
-import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.ADB_COMMAND_TIMEOUT_KEY;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static org.slf4j.LoggerFactory.getLogger;
 
 @Singleton
 public final class ScreenCaptureRunnable implements Runnable {
 
-    private static final int MOV_FPS = 30;
-    private static final float MOV_COMPRESSION_RATE = 1f;
-    private static final int FRAME_DURATION = 10;
-    private final IDevice device;
-    private final long defaultAdbCommandTimeout;
+    /**
+     * Capacity of the hand-off queues between the pipeline stages. Kept small on purpose: a stage that falls behind should skip stale frames
+     * rather than accumulate them.
+     */
+    private static final int STAGE_QUEUE_CAPACITY = 2;
+    private final FrameSource frameSource;
+    private final FrameConverter frameConverter;
+    private final CaptureRateController rateController;
+    private final FrameMetrics metrics;
+    private final FrameRecorderFactory frameRecorderFactory;
     private final Dimension size;
-    private QuickTimeOutputStream qos = null;
-    private boolean landscape = false;
-    private ScreenCaptureListener listener = null;
-    private long currentAdbCommandTimeout;
-    private boolean isStopped = false;
+    private final FrameQueue<CapturedFrame> fetchedFrames;
+    private final FrameQueue<CapturedFrame> convertedFrames;
+    private final DisplayMailbox displayMailbox;
+    private final List<FrameObserver> frameObservers = new CopyOnWriteArrayList<>();
+    private final Object recordingLock = new Object();
+    private FrameRecorder recorder = null;
+    /**
+     * Frame currently shown by the listener. Accessed on the Event Dispatch Thread only.
+     */
+    private PooledFrame displayedFrame = null;
+    /**
+     * Sequence number of the last frame which reached the delivery stage. Accessed by the delivery stage only.
+     */
+    private long deliveredSequence = -1;
+    /**
+     * Sequence number of the last frame which reached the recording. Accessed by the delivery stage only.
+     */
+    private long recordedSequence = -1;
+    private volatile Rotation rotation = Rotation.NONE;
+    private volatile ScreenCaptureListener listener = null;
+    private volatile boolean isStopped = false;
 
     @Inject
-    public ScreenCaptureRunnable(final IDevice device, @Named(ADB_COMMAND_TIMEOUT_KEY) long adbCommandTimeout) {
+    public ScreenCaptureRunnable(final FrameSource frameSource,
+                                 final FrameConverter frameConverter,
+                                 final CaptureRateController rateController,
+                                 final FrameMetrics metrics,
+                                 final FrameRecorderFactory frameRecorderFactory) {
         this.size = new Dimension();
-        this.device = device;
-        this.defaultAdbCommandTimeout = adbCommandTimeout;
-        this.currentAdbCommandTimeout = defaultAdbCommandTimeout;
+        this.frameSource = frameSource;
+        this.frameConverter = frameConverter;
+        this.rateController = rateController;
+        this.metrics = metrics;
+        this.frameRecorderFactory = frameRecorderFactory;
+        this.fetchedFrames = new FrameQueue<>(STAGE_QUEUE_CAPACITY);
+        this.convertedFrames = new FrameQueue<>(STAGE_QUEUE_CAPACITY);
+        this.displayMailbox = new DisplayMailbox(this::show, metrics::frameDropped);
     }
 
+    /**
+     * Fetch stage of the capture pipeline: pulls raw framebuffers from the device at the pace set by the {@link CaptureRateController} and hands
+     * them over to the conversion stage.
+     */
     @Override
     public void run() {
         log().info("Starting screen capturing.");
-        while (!isStopped) {
+        try {
+            while (!isStopped) {
+                try {
+                    rateController.awaitNextFetch();
+                    final long fetchStart = System.nanoTime();
+                    final RawImage screenshot = getScreenshot();
+                    if (screenshot != null) {
+                        final long fetched = metrics.record(FrameStage.FETCH, fetchStart);
+                        metrics.frameFetched();
+                        for (final FrameObserver observer : frameObservers) {
+                            observer.onFrameFetched(screenshot, fetchStart, fetched);
+                        }
+                        drop(fetchedFrames.offer(new CapturedFrame(screenshot, rotation, fetchStart, fetched)));
+                    } else {
+                        rateController.frameCompleted();
+                        log().info("Failed to get device screenshot.");
+                    }
+                } catch (final ClosedByInterruptException e) {
+                    log().error("ADB Channel closed due to interrupted exception.", e);
+                    break;
+                } catch (final InterruptedException e) {
+                    log().error("Execution of thread was interrupted. Shutting down thread.", e);
+                    break;
+                }
+            }
+        } finally {
+            fetchedFrames.close();
+        }
+        log().info("Stopping screen capturing. {} fetched frames were dropped.", fetchedFrames.getDroppedFrames());
+    }
+
+    /**
+     * Conversion stage of the capture pipeline: rotates and converts raw framebuffers while the fetch stage is already waiting for the next one.
+     *
+     * @return runnable to be executed by a dedicated thread
+     */
+    Runnable conversionStage() {
+        return () -> {
+            final FrameDiff frameDiff = new FrameDiff(frameSource::pin, frameSource::unpin);
+            PooledFrame lastConverted = null;
+            long sequence = 0;
             try {
-                final RawImage screenshot = getScreenshot();
-                if (screenshot != null) {
-                    display(screenshot);
-                } else {
-                    log().info("Failed to get device screenshot.");
+                CapturedFrame frame;
+                while ((frame = fetchedFrames.take()) != null) {
+                    if (isStopped) {
+                        // the remaining frames are drained until the fetch stage closes the queue, so that none of them is leaked
+                        complete(frame);
+                        continue;
+                    }
+                    final long conversionStart = System.nanoTime();
+                    final List<Rectangle> dirtyRegions = frameDiff.diff(frame.getRawImage(), frame.getRotation());
+                    if (dirtyRegions.isEmpty() && lastConverted != null) {
+                        // nothing has changed on the screen, so the previous conversion is reused
+                        frame.setImage(lastConverted.retain());
+                    } else {
+                        frame.setImage(frameConverter.convert(frame.getRawImage(), frame.getRotation()));
+                        if (lastConverted != null) {
+                            lastConverted.release();
+                        }
+                        lastConverted = frame.getImage().retain();
+                    }
+                    frame.setDirtyRegions(dirtyRegions);
+                    frame.setSequence(sequence++);
+                    metrics.record(FrameStage.CONVERSION, conversionStart);
+                    rateController.frameAnalyzed(!dirtyRegions.isEmpty());
+                    drop(convertedFrames.offer(frame));
                 }
-            } catch (final ClosedByInterruptException e) {
-                log().error("ADB Channel closed due to interrupted exception.", e);
-                break;
             } catch (final InterruptedException e) {
-                log().error("Execution of thread was interrupted. Shutting down thread.", e);
-                break;
+                log().error("Frame conversion was interrupted. Shutting down thread.", e);
+            } finally {
+                frameDiff.reset();
+                if (lastConverted != null) {
+                    lastConverted.release();
+                }
+                convertedFrames.close();
             }
-        }
-        log().info("Stopping screen capturing.");
+            log().info("Stopping frame conversion. {} converted frames were dropped.", convertedFrames.getDroppedFrames());
+        };
+    }
+
+    /**
+     * Delivery stage of the capture pipeline: hands converted frames over to Swing and encodes them into the recording, if one is active.
+     *
+     * @return runnable to be executed by a dedicated thread
+     */
+    Runnable deliveryStage() {
+        return () -> {
+            try {
+                CapturedFrame frame;
+                while ((frame = convertedFrames.take()) != null) {
+                    try {
+                        if (!isStopped) {
+                            display(frame);
+                            record(frame);
+                        }
+                    } finally {
+                        complete(frame);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                log().error("Frame delivery was interrupted. Shutting down thread.", e);
+            }
+            log().info("Stopping frame delivery. {} frames were superseded before being displayed.", displayMailbox.getDroppedFrames());
+        };
     }
 
     private RawImage getScreenshot() throws InterruptedException, ClosedByInterruptException {
         RawImage rawImage = null;
         try {
-            synchronized (device) {
-                rawImage = device.getScreenshot(currentAdbCommandTimeout, TimeUnit.SECONDS);
-            }
-            currentAdbCommandTimeout = defaultAdbCommandTimeout;
+            final long timeout = rateController.getCommandTimeout();
+            rawImage = frameSource.fetchFrame(timeout, TimeUnit.SECONDS);
+            rateController.fetchSucceeded();
         } catch (TimeoutException e) {
-            currentAdbCommandTimeout++;
-            log().warn("Adb command timeout happened. Timeout would be set to {} for the next try.", currentAdbCommandTimeout, e);
+            rateController.fetchTimedOut();
+            log().warn("Adb command timeout happened. Timeout would be set to {} for the next try.", rateController.getCommandTimeout(), e);
         } catch (AdbCommandRejectedException e) {
-            log().warn("ADB Command was rejected. Will try again in 100 ms.", e);
-            Thread.sleep(100);
+            final long backoff = rateController.fetchFailed();
+            log().warn("ADB Command was rejected. Will try again in {} ms.", backoff, e);
+            Thread.sleep(backoff);
         } catch (ClosedByInterruptException e) {
             throw e;
-        } catch (IOException e) {
-            log().warn("IO Exception happened while getting device screenshot. Will try again in 100 ms.", e);
-            Thread.sleep(100);
+        } catch (IOException | ShellCommandUnresponsiveException | SyncException e) {
+            final long backoff = rateController.fetchFailed();
+            log().warn("IO Exception happened while getting device screenshot. Will try again in {} ms.", backoff, e);
+            Thread.sleep(backoff);
         }
         return rawImage;
     }
 
-    private void display(final RawImage rawImage) {
-        final RawImage imageToProcess = landscape ? rawImage.getRotated() : rawImage;
-        final BufferedImage image = ImageUtils.convertImage(imageToProcess);
+    /**
+     * Takes the frame out of the pipeline, whether it was delivered or dropped, and gives its in-flight budget back.
+     */
+    private void complete(final CapturedFrame frame) {
+        if (frame != null) {
+            frame.release();
+            rateController.frameCompleted();
+        }
+    }
+
+    /**
+     * Completes a frame pushed out of a full stage queue by a newer one.
+     */
+    private void drop(final CapturedFrame frame) {
+        if (frame != null) {
+            metrics.frameDropped();
+            complete(frame);
+        }
+    }
+
+    private void display(final CapturedFrame frame) {
+        final ScreenCaptureListener currentListener = listener;
+        if (currentListener == null) {
+            return;
+        }
+        // frames dropped on the way lose their dirty regions, so the whole frame has to be repainted after a gap
+        final boolean contiguous = frame.getSequence() == deliveredSequence + 1;
+        deliveredSequence = frame.getSequence();
+        if (contiguous && frame.getDirtyRegions().isEmpty()) {
+            return;
+        }
+        final PooledFrame image = frame.getImage().retain();
+        final boolean frameLandscape = frame.getRotation().swapsDimensions();
+        final List<Rectangle> dirtyRegions = contiguous
+                ? frame.getDirtyRegions()
+                : Collections.singletonList(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        displayMailbox.post(new DisplayMailbox.Delivery(currentListener, image, frameLandscape, dirtyRegions, frame.getFetchStartTime(),
+                System.nanoTime()));
+    }
+
+    /**
+     * Shows the newest posted frame. Called on the Event Dispatch Thread.
+     */
+    private void show(final DisplayMailbox.Delivery delivery) {
+        metrics.record(FrameStage.DISPATCH, delivery.getPostTime());
+        final PooledFrame image = delivery.getImage();
         size.setSize(image.getWidth(), image.getHeight());
-        if (listener != null) {
-            SwingUtilities.invokeLater(() -> listener.handleNewImage(size, image, landscape));
+        delivery.getListener().handleNewImage(size, image.getImage(), delivery.isLandscape(), delivery.getDirtyRegions());
+        metrics.frameDisplayed(delivery.getFetchStartTime());
+        // the listener has replaced its reference to the previous frame, so the latter can be recycled
+        if (displayedFrame != null) {
+            displayedFrame.release();
         }
-        if (qos != null) {
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    if (qos != null)
-                        qos.writeFrame(image, FRAME_DURATION);
-                } catch (IORuntimeException e) {
-                    log().error("IO exception happened during writing the video frame: {}.", image, e);
-                }
-            });
+        displayedFrame = image;
+    }
+
+    private void record(final CapturedFrame frame) throws InterruptedException {
+        // as for display, the dirty regions only describe the change since the previous frame if no frame was dropped in between
+        final boolean contiguous = frame.getSequence() == recordedSequence + 1;
+        recordedSequence = frame.getSequence();
+        synchronized (recordingLock) {
+            if (recorder != null) {
+                recorder.submit(frame.getImage().retain(), frame.getCaptureTime(), contiguous, !frame.getDirtyRegions().isEmpty());
+            }
         }
     }
 
@@ -130,32 +308,78 @@ public final class ScreenCaptureRunnable implements Runnable {
         this.listener = listener;
     }
 
-    public void startRecording(final File file) {
-        try {
-            qos = new QuickTimeOutputStream(file, QuickTimeOutputStream.VideoFormat.PNG);
-            qos.setVideoCompressionQuality(MOV_COMPRESSION_RATE);
-            qos.setTimeScale(MOV_FPS);
-        } catch (final IOException e) {
-            throw new IORuntimeException(e);
+    public void addFrameObserver(final FrameObserver observer) {
+        frameObservers.add(checkNotNull(observer, "observer"));
+    }
+
+    public void removeFrameObserver(final FrameObserver observer) {
+        frameObservers.remove(observer);
+    }
+
+    /**
+     * Starts recording the captured frames into the movie file.
+     *
+     * @param file      file to write the movie to
+     * @param fastStart whether the movie atom is moved in front of the media data once the recording is stopped, so that the movie can be played
+     *                  without reading its end first
+     */
+    public void startRecording(final File file, final boolean fastStart) {
+        final FrameRecorder frameRecorder = frameRecorderFactory.open(file, fastStart);
+        synchronized (recordingLock) {
+            recorder = frameRecorder;
         }
     }
 
+    /**
+     * Stops recording and waits until the frames recorded so far are written.
+     */
     public void stopRecording() {
-        QuickTimeOutputStream o = qos;
-        qos = null;
-        o.close();
+        final FrameRecorder frameRecorder;
+        synchronized (recordingLock) {
+            frameRecorder = recorder;
+            recorder = null;
+        }
+        if (frameRecorder != null) {
+            frameRecorder.close();
+        }
     }
 
+    /**
+     * Switches between the portrait and the landscape view. Any other rotation is reset to portrait.
+     */
     public void toggleOrientation() {
-        landscape = !landscape;
+        rotation = rotation == Rotation.NONE ? Rotation.ROTATE_90 : Rotation.NONE;
+    }
+
+    public Rotation getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Sets the rotation applied to frames fetched from now on, e.g. to follow the rotation reported by the device.
+     */
+    public void setRotation(final Rotation rotation) {
+        this.rotation = checkNotNull(rotation, "rotation");
     }
 
     public void stop() {
         isStopped = true;
+        fetchedFrames.close();
+        convertedFrames.close();
     }
 
     public interface ScreenCaptureListener {
         void handleNewImage(Dimension size, BufferedImage image, boolean landscape);
+
+        /**
+         * Called instead of {@link #handleNewImage(Dimension, BufferedImage, boolean)} when the regions changed since the previous image are known.
+         * Frames identical to the previous one are not delivered at all.
+         *
+         * @param dirtyRegions changed regions in image coordinates
+         */
+        default void handleNewImage(Dimension size, BufferedImage image, boolean landscape, List<Rectangle> dirtyRegions) {
+            handleNewImage(size, image, landscape);
+        }
     }
 
     private enum LogSingleton {
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.injector;
+
+import com.github.xsavikx.androidscreencast.api.capture.EncodedStreamSource;
+import com.github.xsavikx.androidscreencast.api.h264.AccessUnitAssembler;
+import com.github.xsavikx.androidscreencast.api.h264.AnnexBParser;
+import com.github.xsavikx.androidscreencast.api.h264.H264Remuxer;
+import com.github.xsavikx.androidscreencast.api.recording.QuickTimeOutputStream;
+import com.github.xsavikx.androidscreencast.exception.IORuntimeException;
+import org.slf4j.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_FRAGMENT_DURATION_KEY;
+import static com.google.common.base.Preconditions.checkState;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Records the video encoded by the device into a QuickTime movie, remuxing the H.264 stream without decoding it.
+ */
+@Singleton
+public final class StreamRecorder {
+
+    /**
+     * Maximum time to wait for the movie to be finished once the stream was stopped.
+     */
+    private static final long FINISH_TIMEOUT_SECONDS = 10;
+    private final EncodedStreamSource encodedStreamSource;
+    private final int fragmentDuration;
+    private H264Remuxer remuxer;
+
+    @Inject
+    public StreamRecorder(final EncodedStreamSource encodedStreamSource,
+                          @Named(APP_RECORDING_FRAGMENT_DURATION_KEY) int fragmentDuration) {
+        this.encodedStreamSource = encodedStreamSource;
+        this.fragmentDuration = fragmentDuration;
+    }
+
+    /**
+     * @param file      file to write the movie to
+     * @param fastStart whether the movie atom is moved in front of the media data once the recording is stopped
+     */
+    public synchronized void start(final File file, final boolean fastStart) {
+        checkState(remuxer == null, "Stream recording is running already.");
+        try {
+            final QuickTimeOutputStream movie = new QuickTimeOutputStream(file, QuickTimeOutputStream.VideoFormat.H264);
+            movie.setFragmentDuration(fragmentDuration);
+            movie.setFastStart(fastStart);
+            remuxer = new H264Remuxer(movie);
+        } catch (final IOException e) {
+            throw new IORuntimeException(e);
+        }
+        encodedStreamSource.start(new AnnexBParser(new AccessUnitAssembler(remuxer)));
+    }
+
+    /**
+     * Stops the stream and waits for the movie to be finished.
+     */
+    public synchronized void stop() {
+        if (remuxer == null) {
+            return;
+        }
+        encodedStreamSource.stop();
+        try {
+            if (!remuxer.awaitFinished(FINISH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log().error("Stream recording was not finished within {} seconds.", FINISH_TIMEOUT_SECONDS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log().error("Waiting for stream recording to finish was interrupted.", e);
+        } finally {
+            remuxer = null;
+        }
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(StreamRecorder.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
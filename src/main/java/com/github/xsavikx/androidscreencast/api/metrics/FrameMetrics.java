@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.metrics;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage latencies and frame counters of the screen capture pipeline.
+ * <p>
+ * Stages stamp their frames with {@link System#nanoTime()} checkpoints and record the differences here. Recording is lock-free and cheap enough
+ * to stay enabled all the time; consumers read the collected data through their own {@link Sampler}.
+ */
+@Singleton
+public final class FrameMetrics {
+
+    private final Map<FrameStage, LatencyHistogram> histograms = new EnumMap<>(FrameStage.class);
+    private final LongAdder fetchedFrames = new LongAdder();
+    private final LongAdder displayedFrames = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder recordedFrames = new LongAdder();
+    /**
+     * Fetch start of the frame handed to the screen panel but not painted yet, or -1. Accessed on the Event Dispatch Thread only.
+     */
+    private long unpaintedFrameStart = -1;
+
+    @Inject
+    public FrameMetrics() {
+        for (final FrameStage stage : FrameStage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records the time spent in the stage which started at {@code startNanos} and ends now.
+     *
+     * @return the current {@link System#nanoTime()}, which may serve as the start of the next stage
+     */
+    public long record(final FrameStage stage, final long startNanos) {
+        final long now = System.nanoTime();
+        histograms.get(stage).record(now - startNanos);
+        return now;
+    }
+
+    public void frameFetched() {
+        fetchedFrames.increment();
+    }
+
+    public void frameDropped() {
+        droppedFrames.increment();
+    }
+
+    public void frameRecorded() {
+        recordedFrames.increment();
+    }
+
+    /**
+     * Notes that a frame was handed over to the screen panel. Must be called on the Event Dispatch Thread.
+     *
+     * @param fetchStartNanos {@link System#nanoTime()} the fetch of the frame started at
+     */
+    public void frameDisplayed(final long fetchStartNanos) {
+        displayedFrames.increment();
+        unpaintedFrameStart = fetchStartNanos;
+    }
+
+    /**
+     * Records a paint of the screen panel and, if it shows a newly displayed frame, the end to end latency of that frame. Must be called on the
+     * Event Dispatch Thread.
+     *
+     * @param paintStartNanos {@link System#nanoTime()} the paint started at
+     */
+    public void framePainted(final long paintStartNanos) {
+        final long now = record(FrameStage.PAINT, paintStartNanos);
+        if (unpaintedFrameStart >= 0) {
+            histograms.get(FrameStage.END_TO_END).record(now - unpaintedFrameStart);
+            unpaintedFrameStart = -1;
+        }
+    }
+
+    public LatencyHistogram.Snapshot getLatencies(final FrameStage stage) {
+        return histograms.get(stage).snapshot();
+    }
+
+    public long getFetchedFrames() {
+        return fetchedFrames.sum();
+    }
+
+    public long getDisplayedFrames() {
+        return displayedFrames.sum();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    public long getRecordedFrames() {
+        return recordedFrames.sum();
+    }
+
+    /**
+     * @return a new sampler whose first report covers everything recorded so far
+     */
+    public Sampler newSampler() {
+        return new Sampler();
+    }
+
+    /**
+     * Reports what has been recorded since the previous report of the same sampler.
+     */
+    public final class Sampler {
+
+        private final Map<FrameStage, LatencyHistogram.Snapshot> previous = new EnumMap<>(FrameStage.class);
+        private long previousNanos = System.nanoTime();
+        private long previousFetched;
+        private long previousDisplayed;
+        private long previousDropped;
+        private long previousRecorded;
+
+        private Sampler() {
+            for (final FrameStage stage : FrameStage.values()) {
+                previous.put(stage, LatencyHistogram.Snapshot.empty());
+            }
+        }
+
+        public synchronized Report sample() {
+            final long now = System.nanoTime();
+            final Map<FrameStage, LatencyHistogram.Snapshot> latencies = new EnumMap<>(FrameStage.class);
+            for (final FrameStage stage : FrameStage.values()) {
+                final LatencyHistogram.Snapshot snapshot = getLatencies(stage);
+                latencies.put(stage, snapshot.minus(previous.get(stage)));
+                previous.put(stage, snapshot);
+            }
+            final long fetched = getFetchedFrames();
+            final long displayed = getDisplayedFrames();
+            final long dropped = getDroppedFrames();
+            final long recorded = getRecordedFrames();
+            final Report report = new Report(now - previousNanos, fetched - previousFetched, displayed - previousDisplayed,
+                    dropped - previousDropped, recorded - previousRecorded, latencies);
+            previousNanos = now;
+            previousFetched = fetched;
+            previousDisplayed = displayed;
+            previousDropped = dropped;
+            previousRecorded = recorded;
+            return report;
+        }
+    }
+
+    /**
+     * Frame counters and stage latencies of a single reporting interval.
+     */
+    public static final class Report {
+
+        private final long intervalNanos;
+        private final long fetchedFrames;
+        private final long displayedFrames;
+        private final long droppedFrames;
+        private final long recordedFrames;
+        private final Map<FrameStage, LatencyHistogram.Snapshot> latencies;
+
+        private Report(long intervalNanos, long fetchedFrames, long displayedFrames, long droppedFrames, long recordedFrames,
+                       Map<FrameStage, LatencyHistogram.Snapshot> latencies) {
+            this.intervalNanos = intervalNanos;
+            this.fetchedFrames = fetchedFrames;
+            this.displayedFrames = displayedFrames;
+            this.droppedFrames = droppedFrames;
+            this.recordedFrames = recordedFrames;
+            this.latencies = latencies;
+        }
+
+        public double getFetchFps() {
+            return perSecond(fetchedFrames);
+        }
+
+        public double getDisplayFps() {
+            return perSecond(displayedFrames);
+        }
+
+        public long getDroppedFrames() {
+            return droppedFrames;
+        }
+
+        public long getRecordedFrames() {
+            return recordedFrames;
+        }
+
+        public LatencyHistogram.Snapshot getLatencies(final FrameStage stage) {
+            return latencies.get(stage);
+        }
+
+        private double perSecond(final long frames) {
+            return intervalNanos <= 0 ? 0 : frames * (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+        }
+
+        /**
+         * @return one line summary: frame rates, dropped frames and p50/p99 latency in milliseconds of every stage which saw a frame
+         */
+        @Override
+        public String toString() {
+            final StringBuilder summary = new StringBuilder(String.format("display %.1f fps, fetch %.1f fps, %d dropped, %d recorded",
+                    getDisplayFps(), getFetchFps(), droppedFrames, recordedFrames));
+            for (final Map.Entry<FrameStage, LatencyHistogram.Snapshot> stage : latencies.entrySet()) {
+                if (stage.getValue().getCount() > 0) {
+                    summary.append(String.format(", %s %.1f/%.1f ms", stage.getKey().getLabel(),
+                            toMillis(stage.getValue().getValueAtPercentile(50)), toMillis(stage.getValue().getValueAtPercentile(99))));
+                }
+            }
+            return summary.toString();
+        }
+
+        private static double toMillis(final long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link FrameMetrics}. Counters and latencies cover the whole session; latencies are in milliseconds, keyed by stage label.
+ */
+public interface FrameMetricsMXBean {
+
+    long getFetchedFrames();
+
+    long getDisplayedFrames();
+
+    long getDroppedFrames();
+
+    long getRecordedFrames();
+
+    Map<String, Double> getP50Latencies();
+
+    Map<String, Double> getP99Latencies();
+
+    Map<String, Double> getMaxLatencies();
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.metrics;
+
+import org.slf4j.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_METRICS_LOG_INTERVAL_KEY;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Publishes the {@link FrameMetrics} through JMX and logs a summary line of the last interval periodically.
+ */
+@Singleton
+public final class FrameMetricsReporter implements FrameMetricsMXBean {
+
+    private static final String OBJECT_NAME = "com.github.xsavikx.androidscreencast:type=FrameMetrics";
+    private final FrameMetrics metrics;
+    private final long logIntervalSeconds;
+    private ScheduledExecutorService executor;
+    private ObjectName objectName;
+
+    @Inject
+    public FrameMetricsReporter(final FrameMetrics metrics, @Named(APP_METRICS_LOG_INTERVAL_KEY) long logIntervalSeconds) {
+        this.metrics = metrics;
+        this.logIntervalSeconds = logIntervalSeconds;
+    }
+
+    public synchronized void start() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName(OBJECT_NAME);
+            server.registerMBean(this, objectName);
+        } catch (final JMException e) {
+            log().warn("Failed to register frame metrics MBean.", e);
+            objectName = null;
+        }
+        if (logIntervalSeconds > 0) {
+            final FrameMetrics.Sampler sampler = metrics.newSampler();
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "Frame Metrics Reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(() -> log().info("Frame metrics: {}.", sampler.sample()),
+                    logIntervalSeconds, logIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (final JMException e) {
+                log().warn("Failed to unregister frame metrics MBean.", e);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getFetchedFrames() {
+        return metrics.getFetchedFrames();
+    }
+
+    @Override
+    public long getDisplayedFrames() {
+        return metrics.getDisplayedFrames();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return metrics.getDroppedFrames();
+    }
+
+    @Override
+    public long getRecordedFrames() {
+        return metrics.getRecordedFrames();
+    }
+
+    @Override
+    public Map<String, Double> getP50Latencies() {
+        return latencies(50);
+    }
+
+    @Override
+    public Map<String, Double> getP99Latencies() {
+        return latencies(99);
+    }
+
+    @Override
+    public Map<String, Double> getMaxLatencies() {
+        return latencies(100);
+    }
+
+    private Map<String, Double> latencies(final double percentile) {
+        final Map<String, Double> latencies = new LinkedHashMap<>();
+        for (final FrameStage stage : FrameStage.values()) {
+            final long nanos = metrics.getLatencies(stage).getValueAtPercentile(percentile);
+            latencies.put(stage.getLabel(), nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return latencies;
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(FrameMetricsReporter.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.metrics;
+
+/**
+ * Steps a frame goes through on its way from the device to the screen or into the recording.
+ */
+public enum FrameStage {
+    /**
+     * Pulling the frame from the device.
+     */
+    FETCH("fetch"),
+    /**
+     * Dirty region detection plus the fused rotation and conversion into a displayable image.
+     */
+    CONVERSION("convert"),
+    /**
+     * Time the frame waits in the Swing event queue before the Event Dispatch Thread picks it up.
+     */
+    DISPATCH("dispatch"),
+    /**
+     * Painting the screen panel.
+     */
+    PAINT("paint"),
+    /**
+     * Encoding the frame into the recording.
+     */
+    RECORD("record"),
+    /**
+     * From the start of the fetch until the frame has been painted.
+     */
+    END_TO_END("total");
+
+    private final String label;
+
+    FrameStage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
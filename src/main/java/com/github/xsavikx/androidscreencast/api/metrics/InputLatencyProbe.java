@@ -0,0 +1,277 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.metrics;
+
+import com.android.ddmlib.RawImage;
+import com.github.xsavikx.androidscreencast.api.command.executor.CommandExecutor;
+import com.github.xsavikx.androidscreencast.api.command.factory.InputCommandFactory;
+import com.github.xsavikx.androidscreencast.api.image.Rotation;
+import com.github.xsavikx.androidscreencast.api.injector.FrameObserver;
+import com.github.xsavikx.androidscreencast.api.injector.ScreenCaptureRunnable;
+import com.github.xsavikx.androidscreencast.exception.AndroidScreenCastRuntimeException;
+import org.slf4j.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Measures the input-to-photon latency: the time from sending a tap to the device until a captured frame shows a change around the tapped point.
+ * <p>
+ * A probe takes the region around the point from the first frame fetched after the probe started as the baseline, sends the tap and waits for
+ * the first frame whose region differs from the baseline. The latency is measured until that frame was received, so it includes the frame
+ * transfer and is quantized by the capture rate. Taps use coordinates of the displayed frame, which is rotated in landscape mode, so the compared
+ * region is mapped back onto the framebuffer with the rotation in effect when the probe started.
+ * <p>
+ * The probe only depends on the frames it observes and on the {@link CommandExecutor}, so it can be driven by scripted frames as well.
+ */
+@Singleton
+public final class InputLatencyProbe implements FrameObserver {
+
+    /**
+     * Half of the edge of the square region compared around the tapped point, in pixels.
+     */
+    private static final int REGION_RADIUS = 24;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    /**
+     * Number of latest measurements the distribution is computed from.
+     */
+    private static final int WINDOW = 50;
+    private final CommandExecutor commandExecutor;
+    private final InputCommandFactory inputCommandFactory;
+    private final ScreenCaptureRunnable screenCaptureRunnable;
+    private final ExecutorService probeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "Input Latency Probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long[] latencies = new long[WINDOW];
+    private int latencyCount;
+    private int nextLatency;
+    private long timeouts;
+    private boolean enabled;
+    /**
+     * State of the running probe: the compared region in coordinates of the displayed frame, or {@code null} if no probe is running.
+     */
+    private Rectangle region;
+    private Rotation rotation;
+    private long startNanos;
+    private boolean hasBaseline;
+    private long baselineHash;
+    private long sentNanos = -1;
+    private long detectedNanos = -1;
+
+    @Inject
+    public InputLatencyProbe(final CommandExecutor commandExecutor,
+                             final InputCommandFactory inputCommandFactory,
+                             final ScreenCaptureRunnable screenCaptureRunnable) {
+        this.commandExecutor = commandExecutor;
+        this.inputCommandFactory = inputCommandFactory;
+        this.screenCaptureRunnable = screenCaptureRunnable;
+    }
+
+    /**
+     * Switches the probe mode on or off. While it is on, frames are observed and taps may be measured by {@link #measure(int, int)}.
+     */
+    public synchronized void setEnabled(final boolean enabled) {
+        if (this.enabled == enabled) {
+            return;
+        }
+        this.enabled = enabled;
+        if (enabled) {
+            screenCaptureRunnable.addFrameObserver(this);
+        } else {
+            screenCaptureRunnable.removeFrameObserver(this);
+            region = null;
+            notifyAll();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Taps the given point and measures the latency in the background. Taps requested while a probe is running are measured one after another.
+     */
+    public void measure(final int x, final int y) {
+        probeExecutor.execute(() -> {
+            try {
+                probe(x, y);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log().warn("Input latency probe was interrupted.", e);
+            }
+        });
+    }
+
+    private void probe(final int x, final int y) throws InterruptedException {
+        synchronized (this) {
+            if (!enabled) {
+                return;
+            }
+            region = new Rectangle(x - REGION_RADIUS, y - REGION_RADIUS, 2 * REGION_RADIUS, 2 * REGION_RADIUS);
+            rotation = screenCaptureRunnable.getRotation();
+            startNanos = System.nanoTime();
+            hasBaseline = false;
+            sentNanos = -1;
+            detectedNanos = -1;
+            if (!awaitUntil(() -> hasBaseline)) {
+                log().warn("No frame was captured to take the input latency baseline from.");
+                region = null;
+                return;
+            }
+            sentNanos = System.nanoTime();
+        }
+        try {
+            commandExecutor.execute(inputCommandFactory.getTapCommand(x, y));
+        } catch (final AndroidScreenCastRuntimeException e) {
+            synchronized (this) {
+                region = null;
+            }
+            log().warn("Failed to send the input latency probe tap.", e);
+            return;
+        }
+        synchronized (this) {
+            final boolean detected = awaitUntil(() -> detectedNanos >= 0);
+            region = null;
+            if (detected) {
+                addLatency(detectedNanos - sentNanos);
+                log().info("Input latency: {} ms. {}", TimeUnit.NANOSECONDS.toMillis(detectedNanos - sentNanos), describe());
+            } else if (enabled) {
+                timeouts++;
+                log().info("Input latency probe saw no change around ({}, {}) within {} ms.", x, y, TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NANOS));
+            }
+        }
+    }
+
+    /**
+     * Waits for the condition, giving up after {@link #TIMEOUT_NANOS} or once the probe mode is switched off.
+     */
+    private boolean awaitUntil(final Condition condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (!condition.isMet()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !enabled) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void onFrameFetched(final RawImage rawImage, final long fetchStartNanos, final long fetchedNanos) {
+        if (region == null || fetchStartNanos < startNanos) {
+            return;
+        }
+        final Rectangle framebufferRegion = rotation.unrotate(region, rawImage.width, rawImage.height);
+        if (!hasBaseline) {
+            baselineHash = regionHash(rawImage, framebufferRegion);
+            hasBaseline = true;
+            notifyAll();
+        } else if (sentNanos >= 0 && detectedNanos < 0 && fetchedNanos > sentNanos && regionHash(rawImage, framebufferRegion) != baselineHash) {
+            detectedNanos = fetchedNanos;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return latencies of the latest measurements in nanoseconds, in ascending order
+     */
+    public synchronized long[] getLatencies() {
+        final long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return number of probes which saw no change on the screen
+     */
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return one line summary of the latest measurements
+     */
+    public synchronized String describe() {
+        final long[] sorted = getLatencies();
+        if (sorted.length == 0) {
+            return String.format("No input latency measured yet, %d timed out.", timeouts);
+        }
+        return String.format("Input latency of the last %d taps: p50 %d ms, p90 %d ms, max %d ms, %d timed out.", sorted.length,
+                TimeUnit.NANOSECONDS.toMillis(percentile(sorted, 50)),
+                TimeUnit.NANOSECONDS.toMillis(percentile(sorted, 90)),
+                TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length - 1]),
+                timeouts);
+    }
+
+    private void addLatency(final long nanos) {
+        latencies[nextLatency] = nanos;
+        nextLatency = (nextLatency + 1) % WINDOW;
+        latencyCount = Math.min(latencyCount + 1, WINDOW);
+    }
+
+    private static long percentile(final long[] sorted, final int percentile) {
+        return sorted[Math.max(0, (int) Math.ceil(percentile / 100d * sorted.length) - 1)];
+    }
+
+    /**
+     * @return hash of the raw pixel bytes of the region, clipped to the frame
+     */
+    static long regionHash(final RawImage rawImage, final Rectangle region) {
+        final Rectangle clipped = region.intersection(new Rectangle(0, 0, rawImage.width, rawImage.height));
+        if (clipped.isEmpty()) {
+            return 0;
+        }
+        final int bytesPerPixel = rawImage.bpp / 8;
+        final byte[] data = rawImage.data;
+        long hash = 1125899906842597L;
+        for (int y = clipped.y; y < clipped.y + clipped.height; y++) {
+            final int from = (y * rawImage.width + clipped.x) * bytesPerPixel;
+            for (int i = from, end = from + clipped.width * bytesPerPixel; i < end; i++) {
+                hash = 31 * hash + data[i];
+            }
+        }
+        return hash;
+    }
+
+    @FunctionalInterface
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(InputLatencyProbe.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
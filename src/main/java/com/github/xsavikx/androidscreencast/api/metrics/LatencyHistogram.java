@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets, in the spirit of HdrHistogram.
+ * <p>
+ * Latencies are recorded with microsecond resolution. Every power of two is split into {@link #SUB_BUCKETS} linear buckets, which bounds the
+ * error of any reported value to about 3% while covering the whole {@code long} range in under two thousand counters. Recording is a single
+ * atomic increment, so any number of threads may record concurrently with readers taking snapshots.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @param nanos latency to record. Negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(index(TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0))));
+    }
+
+    /**
+     * @return counts recorded so far. Concurrent recordings may or may not be included
+     */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value which falls into the bucket
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Immutable copy of histogram counts.
+     */
+    public static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(new long[BUCKETS]);
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long bucket : counts) {
+                total += bucket;
+            }
+            this.count = total;
+        }
+
+        public static Snapshot empty() {
+            return EMPTY;
+        }
+
+        /**
+         * @return latencies recorded after the given earlier snapshot of the same histogram
+         */
+        public Snapshot minus(final Snapshot earlier) {
+            final long[] difference = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @param percentile percentile between 0 and 100
+         * @return latency in nanoseconds which the given percentage of the recorded latencies does not exceed, or 0 if nothing was recorded
+         */
+        public long getValueAtPercentile(final double percentile) {
+            checkArgument(percentile >= 0 && percentile <= 100, "Percentile should be between 0 and 100, but was %s", percentile);
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return TimeUnit.MICROSECONDS.toNanos(highestValue(i));
+                }
+            }
+            throw new IllegalStateException("Histogram counts changed while reading them.");
+        }
+
+        /**
+         * @return the highest recorded latency in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getMax() {
+            return getValueAtPercentile(100);
+        }
+    }
+}
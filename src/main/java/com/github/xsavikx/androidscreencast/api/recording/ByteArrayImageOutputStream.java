@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Seekable image output stream writing to a growable in-memory buffer, which is kept when the stream is cleared so that encoding many frames
+ * does not allocate a new buffer for each of them.
+ */
+final class ByteArrayImageOutputStream extends ImageOutputStreamImpl {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count;
+
+    /**
+     * Discards the written data and moves back to the start of the buffer.
+     */
+    void clear() {
+        count = 0;
+        streamPos = 0;
+        flushedPos = 0;
+        bitOffset = 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * @return view of the written data, which is valid until the stream is cleared or written to again
+     */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, count);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + 1);
+        buffer[(int) streamPos++] = (byte) b;
+        count = Math.max(count, (int) streamPos);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + len);
+        System.arraycopy(b, off, buffer, (int) streamPos, len);
+        streamPos += len;
+        count = Math.max(count, (int) streamPos);
+    }
+
+    @Override
+    public int read() throws IOException {
+        bitOffset = 0;
+        return streamPos < count ? buffer[(int) streamPos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        bitOffset = 0;
+        if (streamPos >= count) {
+            return -1;
+        }
+        final int read = Math.min(len, count - (int) streamPos);
+        System.arraycopy(buffer, (int) streamPos, b, off, read);
+        streamPos += read;
+        return read;
+    }
+
+    @Override
+    public long length() {
+        return count;
+    }
+
+    private void ensureCapacity(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IOException("Encoded frame is too large: " + capacity + " bytes");
+        }
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, (int) Math.max(capacity, 2L * buffer.length));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Image output stream writing to a file through a {@link FileChannel}, collecting small writes in a buffer which is written with a single
+ * positional write once it is full or the stream moves away from it.
+ * <p>
+ * Atoms are written field by field and get their size header patched in once they are finished. Patches of headers which are still buffered do
+ * not touch the file at all, others become one small positional write, so neither costs a system call per field.
+ */
+final class ChannelImageOutputStream extends ImageOutputStreamImpl {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final FileChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * Position of the buffer in the file.
+     */
+    private long bufferStart;
+    /**
+     * Number of bytes in the buffer which have to be written, the buffer may be overwritten below this mark.
+     */
+    private int bufferLength;
+
+    ChannelImageOutputStream(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushBits();
+        prepareBuffer(1);
+        buffer[(int) (streamPos - bufferStart)] = (byte) b;
+        advance(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        if (len > BUFFER_SIZE) {
+            // large writes like encoded frames go to the file directly
+            flushBuffer();
+            writeFully(ByteBuffer.wrap(b, off, len), streamPos);
+            streamPos += len;
+            bufferStart = streamPos;
+            return;
+        }
+        prepareBuffer(len);
+        System.arraycopy(b, off, buffer, (int) (streamPos - bufferStart), len);
+        advance(len);
+    }
+
+    /**
+     * Writes the remaining bytes of the buffers one after another at the stream position with gathering writes, without copying them into the
+     * buffer of the stream.
+     */
+    void write(ByteBuffer[] buffers) throws IOException {
+        flushBits();
+        flushBuffer();
+        long remaining = 0;
+        for (ByteBuffer b : buffers) {
+            remaining += b.remaining();
+        }
+        // gathering writes are not positional, they start at the position of the channel
+        channel.position(streamPos);
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        streamPos = channel.position();
+        bufferStart = streamPos;
+    }
+
+    /**
+     * Appends the whole content of the source file at the stream position. The bytes are transferred between the channels by the operating system
+     * where possible, without being copied through the heap.
+     *
+     * @return number of bytes appended
+     */
+    long transferFrom(FileChannel source) throws IOException {
+        flushBits();
+        flushBuffer();
+        final long size = source.size();
+        long transferred = 0;
+        source.position(0);
+        while (transferred < size) {
+            final long count = channel.transferFrom(source, streamPos + transferred, size - transferred);
+            if (count <= 0) {
+                throw new EOFException("Source file was truncated while it was being transferred.");
+            }
+            transferred += count;
+        }
+        streamPos += transferred;
+        bufferStart = streamPos;
+        return transferred;
+    }
+
+    /**
+     * Cuts the file off at the given position and moves the stream there, e.g. to drop the part of a write which failed midway. Buffered bytes
+     * beyond the position are discarded as well.
+     */
+    void truncate(long position) throws IOException {
+        flushBits();
+        bufferLength = (int) Math.max(0, Math.min(bufferLength, position - bufferStart));
+        if (channel.size() > position) {
+            channel.truncate(position);
+        }
+        seek(position);
+    }
+
+    /**
+     * Makes sure that the given number of bytes at the stream position can be written into the buffer.
+     */
+    private void prepareBuffer(int length) throws IOException {
+        final long position = streamPos - bufferStart;
+        if (position < 0 || position > bufferLength || position + length > BUFFER_SIZE) {
+            flushBuffer();
+        }
+    }
+
+    private void advance(int length) {
+        streamPos += length;
+        bufferLength = Math.max(bufferLength, (int) (streamPos - bufferStart));
+    }
+
+    /**
+     * Writes the buffered bytes to the file and moves the buffer to the stream position.
+     */
+    private void flushBuffer() throws IOException {
+        if (bufferLength > 0) {
+            writeFully(ByteBuffer.wrap(buffer, 0, bufferLength), bufferStart);
+        }
+        bufferStart = streamPos;
+        bufferLength = 0;
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        flushBuffer();
+        bitOffset = 0;
+        final int read = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+        if (read > 0) {
+            streamPos += read;
+            bufferStart = streamPos;
+        }
+        return read;
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int read = read(b, off, len);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            off += read;
+            len -= read;
+        }
+    }
+
+    @Override
+    public long length() {
+        try {
+            return Math.max(channel.size(), bufferStart + bufferLength);
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the file, so that they can be read by other processes. Unlike {@link ImageOutputStreamImpl#flush()}, the stream
+     * can still seek back to earlier positions.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+            super.close();
+        }
+    }
+}
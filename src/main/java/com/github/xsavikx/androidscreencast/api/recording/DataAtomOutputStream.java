@@ -39,6 +39,10 @@ public final class DataAtomOutputStream extends FilterOutputStream {
      * The number of bytes written to the data output stream so far. If this counter overflows, it will be wrapped to Integer.MAX_VALUE.
      */
     private long written;
+    /**
+     * Assembles multi-byte values, so that each of them is a single write to the underlying stream.
+     */
+    private final byte[] scratch = new byte[8];
 
     public DataAtomOutputStream(OutputStream out) {
         super(out);
@@ -205,23 +209,26 @@ public final class DataAtomOutputStream extends FilterOutputStream {
      * @see java.io.FilterOutputStream#out
      */
     public void writeInt(int v) throws IOException {
-        out.write((v >>> 24) & 0xff);
-        out.write((v >>> 16) & 0xff);
-        out.write((v >>> 8) & 0xff);
-        out.write((v >>> 0) & 0xff);
-        incCount(4);
+        writeBigEndian(v, 4);
     }
 
     public void writeLong(long v) throws IOException {
-        out.write((int) (v >>> 56) & 0xff);
-        out.write((int) (v >>> 48) & 0xff);
-        out.write((int) (v >>> 40) & 0xff);
-        out.write((int) (v >>> 32) & 0xff);
-        out.write((int) (v >>> 24) & 0xff);
-        out.write((int) (v >>> 16) & 0xff);
-        out.write((int) (v >>> 8) & 0xff);
-        out.write((int) (v >>> 0) & 0xff);
-        incCount(8);
+        writeBigEndian(v, 8);
+    }
+
+    /**
+     * Writes the lowest bytes of the value, high byte first.
+     *
+     * @param v      the value
+     * @param length the number of bytes to write
+     * @throws IOException if an I/O error occurs.
+     */
+    private synchronized void writeBigEndian(long v, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            scratch[i] = (byte) (v >>> (8 * (length - 1 - i)));
+        }
+        out.write(scratch, 0, length);
+        incCount(length);
     }
 
     /**
@@ -295,9 +302,7 @@ public final class DataAtomOutputStream extends FilterOutputStream {
      * @throws java.io.IOException
      */
     void writeShort(int v) throws IOException {
-        out.write((v >> 8) & 0xff);
-        out.write((v >>> 0) & 0xff);
-        incCount(2);
+        writeBigEndian(v, 2);
     }
 
     /**
@@ -332,17 +337,11 @@ public final class DataAtomOutputStream extends FilterOutputStream {
      * @throws java.io.IOException
      */
     public void writeUInt(long v) throws IOException {
-        out.write((int) ((v >>> 24) & 0xff));
-        out.write((int) ((v >>> 16) & 0xff));
-        out.write((int) ((v >>> 8) & 0xff));
-        out.write((int) ((v >>> 0) & 0xff));
-        incCount(4);
+        writeBigEndian(v, 4);
     }
 
     void writeUShort(int v) throws IOException {
-        out.write((v >> 8) & 0xff);
-        out.write((v >>> 0) & 0xff);
-        incCount(2);
+        writeBigEndian(v, 2);
     }
 
     @Override
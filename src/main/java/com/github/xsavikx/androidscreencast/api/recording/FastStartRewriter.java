@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Moves the movie atom of a finished movie in front of its media data, so that players can start playing the movie without reading its end first.
+ * <p>
+ * The movie is copied into a temporary file next to it, which replaces the movie once it is complete. Only the movie atom is held in memory, the
+ * media data is copied with channel transfers, and the chunk offsets of the sample tables are shifted by the size of the movie atom.
+ */
+final class FastStartRewriter {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int WIDE_HEADER_SIZE = 16;
+
+    private FastStartRewriter() {
+    }
+
+    /**
+     * Rewrites the movie if its movie atom follows the media data.
+     *
+     * @param file the finished movie
+     * @return true if the movie was rewritten, false if it already starts with the movie atom or has none
+     * @throws IOException if reading or writing the movie failed, in which case the movie is left as it was
+     */
+    static boolean rewrite(File file) throws IOException {
+        final Path movie = file.toPath();
+        final Path rewritten;
+        try (FileChannel in = FileChannel.open(movie, StandardOpenOption.READ)) {
+            final long size = in.size();
+            // the movie atom is inserted in front of the first media data atom, atoms before it like the file type atom stay in place
+            long mediaDataOffset = -1;
+            long movieOffset = -1;
+            long movieSize = 0;
+            long offset = 0;
+            while (offset < size) {
+                if (size - offset < HEADER_SIZE) {
+                    throw new IOException("Movie ends with a truncated atom at offset " + offset + ".");
+                }
+                final ByteBuffer header = read(in, offset, Math.min(WIDE_HEADER_SIZE, size - offset));
+                long atomSize = header.getInt(0) & 0xffffffffL;
+                final String type = type(header, 4);
+                if (atomSize == 1 && header.limit() == WIDE_HEADER_SIZE) {
+                    atomSize = header.getLong(HEADER_SIZE);
+                } else if (atomSize == 0) {
+                    atomSize = size - offset;
+                }
+                if (atomSize < HEADER_SIZE || offset + atomSize > size) {
+                    throw new IOException("Atom '" + type + "' at offset " + offset + " has an invalid size " + atomSize + ".");
+                }
+                if ("mdat".equals(type) && mediaDataOffset < 0) {
+                    mediaDataOffset = offset;
+                } else if ("moov".equals(type)) {
+                    movieOffset = offset;
+                    movieSize = atomSize;
+                }
+                offset += atomSize;
+            }
+            if (movieOffset < 0 || mediaDataOffset < 0 || movieOffset < mediaDataOffset) {
+                return false;
+            }
+            if (movieSize > Integer.MAX_VALUE) {
+                throw new IOException("Movie atom of " + movieSize + " bytes is too large to be moved.");
+            }
+
+            final ByteBuffer movieAtom = read(in, movieOffset, movieSize);
+            shiftChunkOffsets(movieAtom, 0, (int) movieSize, movieSize);
+            ((Buffer) movieAtom).rewind();
+
+            rewritten = Files.createTempFile(movie.toAbsolutePath().getParent(), file.getName(), ".faststart");
+            try (FileChannel out = FileChannel.open(rewritten, StandardOpenOption.WRITE)) {
+                transfer(in, 0, mediaDataOffset, out);
+                while (movieAtom.hasRemaining()) {
+                    out.write(movieAtom);
+                }
+                transfer(in, mediaDataOffset, movieOffset - mediaDataOffset, out);
+                transfer(in, movieOffset + movieSize, size - movieOffset - movieSize, out);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(rewritten);
+                throw e;
+            }
+        }
+        Files.move(rewritten, movie, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * Adds the shift to the chunk offsets of all sample tables within the atoms in the given range of the buffer.
+     */
+    private static void shiftChunkOffsets(ByteBuffer atoms, int start, int end, long shift) throws IOException {
+        int offset = start;
+        while (offset + HEADER_SIZE <= end) {
+            long atomSize = atoms.getInt(offset) & 0xffffffffL;
+            final String type = type(atoms, offset + 4);
+            int headerSize = HEADER_SIZE;
+            if (atomSize == 1 && offset + WIDE_HEADER_SIZE <= end) {
+                atomSize = atoms.getLong(offset + HEADER_SIZE);
+                headerSize = WIDE_HEADER_SIZE;
+            } else if (atomSize == 0) {
+                atomSize = end - offset;
+            }
+            if (atomSize < headerSize || offset + atomSize > end) {
+                throw new IOException("Atom '" + type + "' in the movie atom has an invalid size " + atomSize + ".");
+            }
+            final int content = offset + headerSize;
+            final int next = (int) (offset + atomSize);
+            switch (type) {
+                case "moov":
+                case "trak":
+                case "mdia":
+                case "minf":
+                case "stbl":
+                    shiftChunkOffsets(atoms, content, next, shift);
+                    break;
+                case "stco":
+                    // version and flags, number of entries, 32-bit offsets
+                    for (int entry = content + 8; entry + 4 <= next; entry += 4) {
+                        final long chunkOffset = (atoms.getInt(entry) & 0xffffffffL) + shift;
+                        if (chunkOffset > 0xffffffffL) {
+                            throw new IOException("Chunk offset " + chunkOffset + " does not fit into the 32-bit chunk offset table.");
+                        }
+                        atoms.putInt(entry, (int) chunkOffset);
+                    }
+                    break;
+                case "co64":
+                    for (int entry = content + 8; entry + 8 <= next; entry += 8) {
+                        atoms.putLong(entry, atoms.getLong(entry) + shift);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            offset = next;
+        }
+    }
+
+    private static String type(ByteBuffer buffer, int index) {
+        final char[] type = new char[4];
+        for (int i = 0; i < type.length; i++) {
+            type[i] = (char) (buffer.get(index + i) & 0xff);
+        }
+        return new String(type);
+    }
+
+    private static ByteBuffer read(FileChannel in, long position, long length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Appends a range of the source file to the target, which the operating system can do without copying it through the heap.
+     */
+    private static void transfer(FileChannel in, long position, long length, FileChannel out) throws IOException {
+        while (length > 0) {
+            final long transferred = in.transferTo(position, length, out);
+            if (transferred <= 0) {
+                throw new EOFException();
+            }
+            position += transferred;
+            length -= transferred;
+        }
+    }
+}
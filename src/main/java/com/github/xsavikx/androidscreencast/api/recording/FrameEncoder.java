@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+
+/**
+ * Encodes frames in one video format, keeping the image writer, its parameters and the output buffer between frames. Looking a writer up in the
+ * registry and setting it up for every frame is a measurable share of encoding a frame at full frame rate.
+ * <p>
+ * Not thread-safe, every encoding thread needs its own encoder.
+ */
+final class FrameEncoder {
+
+    private final QuickTimeOutputStream.VideoFormat format;
+    private final ByteArrayImageOutputStream output = new ByteArrayImageOutputStream();
+    private final ImageWriter writer;
+    private final ImageWriteParam writeParam;
+    /**
+     * Output the writer is currently set up with.
+     */
+    private ByteArrayImageOutputStream writerOutput;
+    /**
+     * Scanline of raw image data with 3 channels of 32 bit data.
+     */
+    private int[] rawScanline = new int[0];
+    /**
+     * Scanline of raw image data with 3 channels of 8 bit data.
+     */
+    private byte[] rawScanlineBytes = new byte[0];
+
+    FrameEncoder(final QuickTimeOutputStream.VideoFormat format) {
+        this.format = format;
+        switch (format) {
+            case JPG:
+                writer = ImageIO.getImageWritersByMIMEType("image/jpeg").next();
+                writeParam = writer.getDefaultWriteParam();
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                break;
+            case PNG:
+                writer = ImageIO.getImageWritersByMIMEType("image/png").next();
+                writeParam = writer.getDefaultWriteParam();
+                break;
+            default:
+                writer = null;
+                writeParam = null;
+                break;
+        }
+    }
+
+    /**
+     * Encodes the image into the output buffer, replacing the previous frame. The buffer stays valid until the next call.
+     *
+     * @param image   frame to encode
+     * @param quality compression quality, only used by JPEG
+     * @return buffer holding the encoded frame
+     */
+    ByteArrayImageOutputStream encode(final BufferedImage image, final float quality) throws IOException {
+        encode(image, quality, output);
+        return output;
+    }
+
+    /**
+     * Encodes the image into the given buffer, replacing its contents. Lets callers keep several encoded frames without copying them.
+     *
+     * @param image   frame to encode
+     * @param quality compression quality, only used by JPEG
+     * @param target  buffer to encode the frame into
+     */
+    void encode(final BufferedImage image, final float quality, final ByteArrayImageOutputStream target) throws IOException {
+        target.clear();
+        if (format == QuickTimeOutputStream.VideoFormat.RAW) {
+            encodeRaw(image, target);
+        } else {
+            if (format == QuickTimeOutputStream.VideoFormat.JPG) {
+                writeParam.setCompressionQuality(quality);
+            }
+            if (writerOutput != target) {
+                writer.setOutput(target);
+                writerOutput = target;
+            }
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        }
+    }
+
+    private void encodeRaw(final BufferedImage image, final ByteArrayImageOutputStream target) throws IOException {
+        final int n = image.getWidth() * 3;
+        if (rawScanline.length != n) {
+            rawScanline = new int[n];
+            rawScanlineBytes = new byte[n];
+        }
+        final WritableRaster raster = image.getRaster();
+        for (int y = 0; y < image.getHeight(); y++) {
+            raster.getPixels(0, y, image.getWidth(), 1, rawScanline);
+            for (int k = 0; k < n; k++) {
+                rawScanlineBytes[k] = (byte) rawScanline[k];
+            }
+            target.write(rawScanlineBytes);
+        }
+    }
+}
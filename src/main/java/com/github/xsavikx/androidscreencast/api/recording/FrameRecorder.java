@@ -0,0 +1,556 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import com.github.xsavikx.androidscreencast.api.image.PooledFrame;
+import com.github.xsavikx.androidscreencast.api.metrics.FrameMetrics;
+import com.github.xsavikx.androidscreencast.api.metrics.FrameStage;
+import com.github.xsavikx.androidscreencast.exception.IORuntimeException;
+import com.google.common.primitives.Ints;
+import org.slf4j.Logger;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Encodes frames into a movie on dedicated encoder threads, so that the capture pipeline only hands frames over.
+ * <p>
+ * Frames wait for the encoders in a bounded queue; what happens when the queue is full is up to the {@link BackpressurePolicy}. Every frame gets
+ * a sequence number on submission. Encoder threads turn frames into samples concurrently and a single muxer thread appends the samples to the
+ * movie in sequence order, so encoding scales with the number of cores while the movie stays valid.
+ */
+public final class FrameRecorder {
+
+    /**
+     * Maximum time {@link #close()} waits for the queued frames to be encoded before it drops the remaining ones.
+     */
+    private static final long CLOSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    /**
+     * Maximum time {@link BackpressurePolicy#BLOCK} holds the submitter back before the frame is dropped, so that a stalled encoder neither stalls
+     * the capture pipeline nor keeps a recording from being stopped.
+     */
+    private static final long BLOCK_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private final QuickTimeOutputStream movie;
+    private final BlockingQueue<Entry> queue;
+    private final BackpressurePolicy policy;
+    private final FrameMetrics metrics;
+    private final Thread[] encoderThreads;
+    private final Thread muxerThread;
+    /**
+     * Encoded samples waiting for their predecessors, keyed by sequence number. Guarded by itself.
+     */
+    private final Map<Long, EncodedFrame> encodedFrames = new HashMap<>();
+    /**
+     * Buffers encoded frames are kept in until the muxer has written them, reused for later frames. Guarded by itself.
+     */
+    private final Deque<ByteArrayImageOutputStream> encodingBuffers = new ArrayDeque<>();
+    private final int maxIdleBuffers;
+    private volatile boolean closed;
+    /**
+     * Set once closing took too long, encoders skip the frames still queued from then on.
+     */
+    private volatile boolean abandoned;
+    private long submittedFrames;
+    /**
+     * Frame waiting for its successor to tell how long it lasts.
+     */
+    private PooledFrame pendingFrame;
+    /**
+     * Frame size of the movie, taken from the first frame.
+     */
+    private int trackWidth;
+    private int trackHeight;
+    private long startTime;
+    /**
+     * Duration of the frames queued so far, in the time scale of the movie.
+     */
+    private long recordedTicks;
+    private long duplicateFrames;
+    private long resizedFrames;
+    private long droppedFrames;
+    private int runningEncoders;
+    /**
+     * Last encoded frame, held back by the muxer until the next one is written so that the time of frames lost in between still goes to it.
+     */
+    private EncodedFrame heldFrame;
+    /**
+     * Time of frames lost before any frame could be held back, in the time scale of the movie. Goes to the next written frame.
+     */
+    private long lostTicks;
+
+    /**
+     * @param movie          movie to write the frames to. The recorder takes care of closing it
+     * @param queueCapacity  maximum number of frames waiting for an encoder
+     * @param policy         what to do with frames submitted while the queue is full
+     * @param encoderThreads number of threads encoding frames concurrently
+     * @param metrics        metrics to record encoding times and dropped frames in
+     */
+    public FrameRecorder(final QuickTimeOutputStream movie, final int queueCapacity, final BackpressurePolicy policy, final int encoderThreads,
+                         final FrameMetrics metrics) {
+        checkArgument(queueCapacity > 0, "Recording queue capacity should be positive, but was %s", queueCapacity);
+        checkArgument(encoderThreads > 0, "Number of encoder threads should be positive, but was %s", encoderThreads);
+        this.movie = movie;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.policy = policy;
+        this.metrics = metrics;
+        this.runningEncoders = encoderThreads;
+        this.maxIdleBuffers = queueCapacity + encoderThreads;
+        this.encoderThreads = new Thread[encoderThreads];
+        for (int i = 0; i < encoderThreads; i++) {
+            this.encoderThreads[i] = daemonThread(this::encode, "Frame Encoder " + i);
+        }
+        this.muxerThread = daemonThread(this::mux, "Frame Muxer");
+    }
+
+    private static Thread daemonThread(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Records the frame captured at the given moment. The recorder takes over one reference to the frame and releases it once the frame is encoded
+     * or dropped. Must not be called concurrently.
+     * <p>
+     * A frame is shown until the next one was captured, so it is held back until then. Durations are derived from the time elapsed since the first
+     * frame rather than summed up frame by frame, so rounding to the time scale of the movie does not make the recording drift. The time of frames
+     * dropped because the encoders fell behind goes to the next recorded frame, the time of frames which fail to be encoded or written goes to
+     * the previous written frame, or to the next one at the start of the recording.
+     * <p>
+     * Frames with the same pixels as the previous one are neither encoded nor written, the previous frame is shown longer instead. This keeps
+     * recordings of a mostly static screen small. Whether a frame changed is taken from the caller as long as no frame was left out since the
+     * previous one, the pixels are only compared after a gap.
+     * <p>
+     * A movie has a single frame size, so frames whose size differs from the first one, e.g. after switching to landscape mode, are scaled down where
+     * needed to fit into it and centered on a black background.
+     *
+     * @param frame       frame to record
+     * @param captureTime {@link System#nanoTime()} at the moment the frame was captured
+     * @param contiguous  whether the frame directly follows the previously submitted frame, without any frame left out in between
+     * @param changed     whether the frame differs from the previously submitted frame, only used if the frame is contiguous
+     * @throws InterruptedException if the caller was interrupted while waiting for room in the queue
+     */
+    public void submit(final PooledFrame frame, final long captureTime, final boolean contiguous, final boolean changed) throws InterruptedException {
+        checkState(!closed, "Recording has been stopped already.");
+        if (pendingFrame != null) {
+            if ((frame.getWidth() != trackWidth || frame.getHeight() != trackHeight) && resizedFrames++ == 0) {
+                log().warn("Frame size changed from {}x{} to {}x{} while recording. Such frames are scaled to fit into the movie.",
+                        trackWidth, trackHeight, frame.getWidth(), frame.getHeight());
+            }
+            if (contiguous ? !changed : isDuplicate(frame)) {
+                frame.release();
+                duplicateFrames++;
+                return;
+            }
+            enqueue(pendingFrame, captureTime, policy == BackpressurePolicy.BLOCK ? BLOCK_TIMEOUT_NANOS : 0);
+        } else {
+            startTime = captureTime;
+            trackWidth = frame.getWidth();
+            trackHeight = frame.getHeight();
+        }
+        pendingFrame = frame;
+    }
+
+    private boolean isDuplicate(final PooledFrame frame) {
+        return frame == pendingFrame || frame.getWidth() == pendingFrame.getWidth() && frame.getHeight() == pendingFrame.getHeight()
+                && Arrays.equals(frame.getPixels(), pendingFrame.getPixels());
+    }
+
+    /**
+     * @param waitNanos how long to wait for room in the queue before the frame is dropped
+     */
+    private boolean enqueue(final PooledFrame frame, final long endTime, final long waitNanos) throws InterruptedException {
+        final long elapsedTicks = Math.round((endTime - startTime) * (double) movie.getTimeScale() / TimeUnit.SECONDS.toNanos(1));
+        final int duration = Ints.saturatedCast(Math.max(1, elapsedTicks - recordedTicks));
+        final Entry entry = new Entry(submittedFrames, frame, trackWidth, trackHeight, duration);
+        if (!queue.offer(entry, waitNanos, TimeUnit.NANOSECONDS)) {
+            frame.release();
+            metrics.frameDropped();
+            synchronized (this) {
+                droppedFrames++;
+            }
+            return false;
+        }
+        recordedTicks += duration;
+        submittedFrames++;
+        return true;
+    }
+
+    /**
+     * Waits until every queued frame has been written and finishes the movie. The last frame lasts until now. Frames which are not encoded within
+     * {@link #CLOSE_TIMEOUT_NANOS} are dropped, so that stopping a recording does not wait for a long backlog. Must not be called concurrently
+     * with {@link #submit(PooledFrame, long, boolean, boolean)}.
+     */
+    public void close() {
+        closed = true;
+        boolean interrupted = false;
+        final long endTime = System.nanoTime();
+        final long deadline = endTime + CLOSE_TIMEOUT_NANOS;
+        while (pendingFrame != null) {
+            try {
+                enqueue(pendingFrame, endTime, Math.max(0, deadline - System.nanoTime()));
+                pendingFrame = null;
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (int i = 0; i < encoderThreads.length; i++) {
+            while (true) {
+                try {
+                    if (!queue.offer(Entry.END_OF_STREAM, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                        abandon();
+                        // the encoders skip the remaining frames now, so there is room in the queue soon
+                        queue.put(Entry.END_OF_STREAM);
+                    }
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        while (muxerThread.isAlive()) {
+            try {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedJoin(muxerThread, remaining);
+                } else {
+                    // the muxer is not interrupted, that would close the channel of the movie in the middle of a write
+                    abandon();
+                    muxerThread.join();
+                }
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        movie.close();
+        log().info("Recording stopped. {} frames were dropped because the encoders fell behind, {} unchanged frames were merged into the previous ones, "
+                + "{} frames of a different size were scaled.", getDroppedFrames(), duplicateFrames, resizedFrames);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Makes the encoders skip the frames which are still queued and drops them.
+     */
+    private void abandon() {
+        if (abandoned) {
+            return;
+        }
+        abandoned = true;
+        log().warn("Recording was not finished within {} seconds, the frames which are not encoded yet are dropped.",
+                TimeUnit.NANOSECONDS.toSeconds(CLOSE_TIMEOUT_NANOS));
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private void encode() {
+        // frames of a different size are drawn into a frame of the movie size, reused by every frame this thread encodes
+        BufferedImage fitted = null;
+        try {
+            Entry entry;
+            while ((entry = queue.take()) != Entry.END_OF_STREAM) {
+                if (abandoned) {
+                    entry.frame.release();
+                    metrics.frameDropped();
+                    synchronized (this) {
+                        droppedFrames++;
+                    }
+                    publish(entry.sequence, new EncodedFrame(null, 0, 0, entry.duration));
+                    continue;
+                }
+                BufferedImage image = entry.frame.getImage();
+                ByteArrayImageOutputStream data = leaseBuffer();
+                try {
+                    final long encodingStart = System.nanoTime();
+                    if (image.getWidth() != entry.width || image.getHeight() != entry.height) {
+                        if (fitted == null || fitted.getWidth() != entry.width || fitted.getHeight() != entry.height) {
+                            fitted = new BufferedImage(entry.width, entry.height, BufferedImage.TYPE_INT_RGB);
+                        }
+                        fit(image, fitted);
+                        image = fitted;
+                    }
+                    movie.encodeFrame(image, data);
+                    metrics.record(FrameStage.RECORD, encodingStart);
+                } catch (final IORuntimeException e) {
+                    log().error("IO exception happened during encoding the video frame: {}.", image, e);
+                    recycleBuffer(data);
+                    data = null;
+                } catch (final RuntimeException e) {
+                    log().error("Failed to encode the video frame: {}.", image, e);
+                    recycleBuffer(data);
+                    data = null;
+                } finally {
+                    entry.frame.release();
+                }
+                // the muxer waits for every sequence number, so the frame is published even if it could not be encoded
+                publish(entry.sequence, new EncodedFrame(data, entry.width, entry.height, entry.duration));
+            }
+        } catch (final InterruptedException e) {
+            log().error("Frame encoding was interrupted.", e);
+        } finally {
+            synchronized (encodedFrames) {
+                runningEncoders--;
+                encodedFrames.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Draws the image scaled down to fit into the target, keeping its aspect ratio, centered on a black background.
+     */
+    private static void fit(final BufferedImage image, final BufferedImage target) {
+        final double scale = Math.min(1, Math.min((double) target.getWidth() / image.getWidth(), (double) target.getHeight() / image.getHeight()));
+        final int width = (int) Math.round(image.getWidth() * scale);
+        final int height = (int) Math.round(image.getHeight() * scale);
+        final Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, target.getWidth(), target.getHeight());
+            g.drawImage(image, (target.getWidth() - width) / 2, (target.getHeight() - height) / 2, width, height, null);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private void publish(final long sequence, final EncodedFrame frame) {
+        synchronized (encodedFrames) {
+            encodedFrames.put(sequence, frame);
+            encodedFrames.notifyAll();
+        }
+    }
+
+    /**
+     * Appends the encoded frames in sequence order until every encoder has finished and no frame is left.
+     */
+    private void mux() {
+        long nextSequence = 0;
+        final List<EncodedFrame> batch = new ArrayList<>();
+        try {
+            while (true) {
+                synchronized (encodedFrames) {
+                    while (!encodedFrames.containsKey(nextSequence) && runningEncoders > 0) {
+                        encodedFrames.wait();
+                    }
+                    // every frame which is ready in order is taken, so that they are written together
+                    EncodedFrame frame;
+                    while ((frame = encodedFrames.remove(nextSequence)) != null) {
+                        batch.add(frame);
+                        nextSequence++;
+                    }
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                write(batch, false);
+                batch.clear();
+            }
+            write(batch, true);
+        } catch (final InterruptedException e) {
+            log().error("Frame muxing was interrupted.", e);
+        }
+    }
+
+    /**
+     * Writes the encoded frames, each run of frames of the same dimension with a single call. The last frame is held back until the next batch or
+     * the end of the stream, the time of frames which failed to be encoded or written is added to the frame held back at that moment.
+     */
+    private void write(final List<EncodedFrame> frames, final boolean endOfStream) {
+        final List<EncodedFrame> ready = new ArrayList<>(frames.size() + 1);
+        for (final EncodedFrame frame : frames) {
+            if (frame.data == null) {
+                lose(frame.duration);
+                continue;
+            }
+            if (heldFrame != null) {
+                ready.add(heldFrame);
+            }
+            frame.duration += lostTicks;
+            lostTicks = 0;
+            heldFrame = frame;
+        }
+        if (endOfStream && heldFrame != null) {
+            ready.add(heldFrame);
+            heldFrame = null;
+        }
+        int start = 0;
+        while (start < ready.size()) {
+            final EncodedFrame first = ready.get(start);
+            int end = start + 1;
+            while (end < ready.size() && ready.get(end).width == first.width && ready.get(end).height == first.height) {
+                end++;
+            }
+            final List<ByteBuffer> data = new ArrayList<>(end - start);
+            final int[] durations = new int[end - start];
+            for (int i = start; i < end; i++) {
+                data.add(ready.get(i).data.toByteBuffer());
+                durations[i - start] = Ints.saturatedCast(ready.get(i).duration);
+            }
+            try {
+                movie.writeEncodedFrames(data, first.width, first.height, durations);
+                for (int i = start; i < end; i++) {
+                    metrics.frameRecorded();
+                }
+            } catch (final IORuntimeException e) {
+                log().error("IO exception happened during writing {} video frames.", end - start, e);
+                loseAll(ready.subList(start, end));
+            } catch (final RuntimeException e) {
+                log().error("Failed to write {} video frames.", end - start, e);
+                loseAll(ready.subList(start, end));
+            } finally {
+                for (int i = start; i < end; i++) {
+                    recycleBuffer(ready.get(i).data);
+                }
+            }
+            start = end;
+        }
+        if (endOfStream && lostTicks > 0) {
+            log().warn("{} ms of the recording were lost at its end because no frame could be written.",
+                    lostTicks * TimeUnit.SECONDS.toMillis(1) / movie.getTimeScale());
+        }
+    }
+
+    private void loseAll(final List<EncodedFrame> frames) {
+        for (final EncodedFrame frame : frames) {
+            lose(frame.duration);
+        }
+    }
+
+    /**
+     * Adds the time of a frame which could not be written to the frame held back, or keeps it for the next frame if there is none.
+     */
+    private void lose(final long duration) {
+        if (heldFrame != null) {
+            heldFrame.duration += duration;
+        } else {
+            lostTicks += duration;
+        }
+    }
+
+    private ByteArrayImageOutputStream leaseBuffer() {
+        synchronized (encodingBuffers) {
+            final ByteArrayImageOutputStream buffer = encodingBuffers.pollFirst();
+            return buffer != null ? buffer : new ByteArrayImageOutputStream();
+        }
+    }
+
+    /**
+     * Returns a buffer to the pool once its frame is written. Buffers beyond what the queue and the encoders can hold at once are left to the
+     * garbage collector.
+     */
+    private void recycleBuffer(final ByteArrayImageOutputStream buffer) {
+        synchronized (encodingBuffers) {
+            if (encodingBuffers.size() < maxIdleBuffers) {
+                encodingBuffers.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * Ways of dealing with frames submitted while the encoder is behind.
+     */
+    public enum BackpressurePolicy {
+        /**
+         * Drops the submitted frame, keeping the capture pipeline running at full speed.
+         */
+        DROP,
+        /**
+         * Blocks the submitter until the encoder catches up, slowing the capture pipeline down to the encoding rate. A frame which finds no room
+         * within {@link #BLOCK_TIMEOUT_NANOS} is dropped.
+         */
+        BLOCK
+    }
+
+    private static final class Entry {
+
+        private static final Entry END_OF_STREAM = new Entry(-1, null, 0, 0, 0);
+        private final long sequence;
+        private final PooledFrame frame;
+        /**
+         * Frame size of the movie, which the frame is scaled to if its size differs.
+         */
+        private final int width;
+        private final int height;
+        private final int duration;
+
+        private Entry(long sequence, PooledFrame frame, int width, int height, int duration) {
+            this.sequence = sequence;
+            this.frame = frame;
+            this.width = width;
+            this.height = height;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * A frame encoded into a sample, or a frame which failed to encode if there is no data.
+     */
+    private static final class EncodedFrame {
+
+        /**
+         * Encoded frame, {@code null} if encoding failed.
+         */
+        private final ByteArrayImageOutputStream data;
+        private final int width;
+        private final int height;
+        /**
+         * Duration in the time scale of the movie, including the time of neighbouring frames which could not be written.
+         */
+        private long duration;
+
+        private EncodedFrame(ByteArrayImageOutputStream data, int width, int height, int duration) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.duration = duration;
+        }
+    }
+
+    private enum LogSingleton {
+        INSTANCE;
+
+        @SuppressWarnings({"NonSerializableFieldInSerializableClass", "ImmutableEnumChecker"})
+        private final Logger value = getLogger(FrameRecorder.class);
+    }
+
+    private static Logger log() {
+        return LogSingleton.INSTANCE.value;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import com.github.xsavikx.androidscreencast.api.metrics.FrameMetrics;
+import com.github.xsavikx.androidscreencast.exception.IORuntimeException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_BACKPRESSURE_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_ENCODER_THREADS_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_FRAGMENT_DURATION_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_QUEUE_SIZE_KEY;
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_RECORDING_TIME_SCALE_KEY;
+
+/**
+ * Opens movies for recording the captured frames with the configured encoder settings.
+ */
+@Singleton
+public final class FrameRecorderFactory {
+
+    private static final float MOV_COMPRESSION_RATE = 1f;
+    private final FrameMetrics metrics;
+    private final int queueCapacity;
+    private final FrameRecorder.BackpressurePolicy policy;
+    private final int encoderThreads;
+    private final int timeScale;
+    private final int fragmentDuration;
+
+    @Inject
+    public FrameRecorderFactory(final FrameMetrics metrics,
+                                @Named(APP_RECORDING_QUEUE_SIZE_KEY) int queueCapacity,
+                                @Named(APP_RECORDING_BACKPRESSURE_KEY) FrameRecorder.BackpressurePolicy policy,
+                                @Named(APP_RECORDING_ENCODER_THREADS_KEY) int encoderThreads,
+                                @Named(APP_RECORDING_TIME_SCALE_KEY) int timeScale,
+                                @Named(APP_RECORDING_FRAGMENT_DURATION_KEY) int fragmentDuration) {
+        this.metrics = metrics;
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+        this.encoderThreads = encoderThreads;
+        this.timeScale = timeScale;
+        this.fragmentDuration = fragmentDuration;
+    }
+
+    /**
+     * @param file      file to write the movie to
+     * @param fastStart whether the movie atom is moved in front of the media data once the recording is closed
+     * @return recorder writing to a new movie in the file
+     */
+    public FrameRecorder open(final File file, final boolean fastStart) {
+        try {
+            final QuickTimeOutputStream movie = new QuickTimeOutputStream(file, QuickTimeOutputStream.VideoFormat.PNG);
+            movie.setVideoCompressionQuality(MOV_COMPRESSION_RATE);
+            movie.setTimeScale(timeScale);
+            movie.setFragmentDuration(fragmentDuration);
+            movie.setFastStart(fastStart);
+            return new FrameRecorder(movie, queueCapacity, policy, encoderThreads, metrics);
+        } catch (final IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+}
@@ -24,23 +24,18 @@ import com.github.xsavikx.androidscreencast.api.recording.atom.WideDataAtom;
 import com.github.xsavikx.androidscreencast.api.recording.exception.OutputStreamAlreadyClosedException;
 import com.github.xsavikx.androidscreencast.exception.IORuntimeException;
 
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStream;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.List;
 
 import static com.github.xsavikx.androidscreencast.api.recording.atom.AtomType.*;
 import static com.google.common.base.Preconditions.*;
-import static com.google.common.collect.Lists.newLinkedList;
 
 /**
  * Implementation of QuickTime video encoder.
@@ -55,7 +50,8 @@ public final class QuickTimeOutputStream {
     /**
      * Output stream of the QuickTimeOutputStream.
      */
-    private final ImageOutputStream out;
+    private final ChannelImageOutputStream out;
+    private final File file;
     /**
      * Current video format.
      */
@@ -88,42 +84,96 @@ public final class QuickTimeOutputStream {
     /**
      * List of video frames.
      */
-    private final LinkedList<Sample> videoFrames;
+    private SampleTable videoFrames;
     /**
      * This atom holds the movie frames.
      */
     private WideDataAtom mdatAtom;
+    /**
+     * The decoder configuration stored in the sample description of H.264 video.
+     */
+    private byte[] decoderConfiguration;
+    /**
+     * Encoders of the threads writing or encoding frames, each keeps its image writer and buffer across frames.
+     */
+    private final ThreadLocal<FrameEncoder> encoders;
+    /**
+     * Media time in seconds after which the samples written so far are stored as a movie fragment, 0 if the movie is not fragmented.
+     */
+    private int fragmentDuration;
+    /**
+     * Media data of the current fragment of a fragmented movie. Offsets of the samples in {@link #videoFrames} are relative to its start.
+     */
+    private ByteArrayOutputStream fragmentData;
+    /**
+     * Media time of the first sample of the current fragment, which is the duration of the fragments written so far.
+     */
+    private long fragmentStartTime;
+    private int fragmentSequenceNumber;
+    /**
+     * Offset of the movie extends header atom holding the duration of a fragmented movie, 0 until the movie atom is written.
+     */
+    private long movieExtendsHeaderOffset;
+    /**
+     * Whether the movie atom is moved in front of the media data once the movie is closed.
+     */
+    private boolean fastStart;
 
     /**
      * Creates a new output stream with the specified image videoFormat and framerate.
      *
      * @param file   the output file
-     * @param format Selects an encoder for the video format "JPG" or "PNG".
+     * @param format Selects an encoder for the video format "JPG" or "PNG", or "H264" for video encoded elsewhere.
      * @throws IllegalArgumentException if videoFormat is null or if framerate is less or equal to 0
      */
     public QuickTimeOutputStream(File file, VideoFormat format) throws IOException {
         checkNotNull(file, "Result file should not be null.");
         checkNotNull(format, "Video format must not be null.");
         Files.deleteIfExists(file.toPath());
-        out = new FileImageOutputStream(file);
+        out = new ChannelImageOutputStream(file);
+        this.file = file;
         this.videoFormat = format;
-        this.videoFrames = newLinkedList();
+        this.videoFrames = new SampleTable();
+        this.encoders = ThreadLocal.withInitial(() -> new FrameEncoder(format));
     }
 
     /**
-     * Closes the movie file as well as the stream being filtered.
+     * Closes the movie file as well as the stream being filtered, and moves the movie atom to the front if {@link #setFastStart(boolean)} was set.
+     * The file is closed even if the movie could not be finished.
      */
     public void close() {
-        if (state == States.STARTED) {
-            finish();
+        if (state == States.CLOSED) {
+            return;
+        }
+        final boolean finished = state == States.STARTED;
+        RuntimeException failure = null;
+        try {
+            if (finished) {
+                finish();
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // a movie which could not be finished is not rewritten
+        state = States.CLOSED;
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = new IORuntimeException(e);
+            } else {
+                failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
-        if (state != States.CLOSED) {
+        if (finished && fastStart && !isFragmented()) {
             try {
-                out.close();
+                FastStartRewriter.rewrite(file);
             } catch (IOException e) {
                 throw new IORuntimeException(e);
             }
-            state = States.CLOSED;
         }
     }
 
@@ -145,11 +195,74 @@ public final class QuickTimeOutputStream {
         if (state != States.STARTED) {
             creationTime = new Date();
             writeProlog();
-            mdatAtom = new WideDataAtom(MEDIA_DATA, out);
+            if (isFragmented()) {
+                fragmentData = new ByteArrayOutputStream();
+                fragmentStartTime = 0;
+                fragmentSequenceNumber = 0;
+                movieExtendsHeaderOffset = 0;
+            } else {
+                mdatAtom = new WideDataAtom(MEDIA_DATA, out);
+            }
             state = States.STARTED;
         }
     }
 
+    private boolean isFragmented() {
+        return fragmentDuration > 0;
+    }
+
+    /**
+     * Appends media data of samples to the current fragment, or to the file with a single gathering write. The media data bypasses the stream of the
+     * media data atom, the atom only accounts for its length.
+     *
+     * @param buffers heap buffers holding the media data
+     */
+    private void writeMedia(ByteBuffer... buffers) throws IOException {
+        if (isFragmented()) {
+            for (ByteBuffer buffer : buffers) {
+                fragmentData.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+        } else {
+            long offset = out.getStreamPosition();
+            try {
+                out.write(buffers);
+            } catch (IOException e) {
+                discardMedia(offset, e);
+                throw e;
+            }
+            mdatAtom.addDirectlyWritten(out.getStreamPosition() - offset);
+        }
+    }
+
+    /**
+     * Drops the part of media data which made it into the file before writing it failed, so that the next sample is written where the failed one
+     * started and the media data atom only holds complete samples.
+     */
+    private void discardMedia(long offset, IOException cause) {
+        try {
+            out.truncate(offset);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * @return offset of the next sample, in the file or in the current fragment
+     */
+    private long mediaPosition() throws IOException {
+        return isFragmented() ? fragmentData.size() : out.getStreamPosition();
+    }
+
+    /**
+     * Adds a sample to the video track and writes the current fragment once it is long enough.
+     */
+    private void addSample(long offset, long length, int duration, boolean sync) throws IOException {
+        videoFrames.add(offset, length, duration, sync);
+        if (isFragmented() && videoFrames.getDuration() >= (long) fragmentDuration * timeScale) {
+            writeFragment();
+        }
+    }
+
     /**
      * Finishes writing the contents of the QuickTime output stream without closing the underlying stream. Use this method when applying multiple
      * filters in succession to the same output stream.
@@ -159,15 +272,32 @@ public final class QuickTimeOutputStream {
     private void finish() {
         ensureOpen();
         if (state != States.FINISHED) {
-            checkState(imgWidth != UNSPECIFIED && imgHeight != UNSPECIFIED,
-                    "Image width and height must be specified, but were: width=%s, height=%s", imgWidth, imgHeight);
-            mdatAtom.finish();
-            writeEpilog();
+            checkDescribed();
+            if (isFragmented()) {
+                try {
+                    writeFragment();
+                    long pointer = out.getStreamPosition();
+                    out.seek(movieExtendsHeaderOffset + 12);
+                    out.writeInt((int) fragmentStartTime); // movieExtendsHeader.fragmentDuration
+                    out.seek(pointer);
+                } catch (IOException e) {
+                    throw new IORuntimeException(e);
+                }
+            } else {
+                mdatAtom.finish();
+                writeEpilog();
+            }
             state = States.FINISHED;
             imgWidth = imgHeight = UNSPECIFIED;
         }
     }
 
+    private void checkDescribed() {
+        checkState(imgWidth != UNSPECIFIED && imgHeight != UNSPECIFIED,
+                "Image width and height must be specified, but were: width=%s, height=%s", imgWidth, imgHeight);
+        checkState(videoFormat != VideoFormat.H264 || decoderConfiguration != null, "H.264 decoder configuration must be specified.");
+    }
+
     /**
      * Returns the time scale of this media.
      *
@@ -189,6 +319,33 @@ public final class QuickTimeOutputStream {
         this.timeScale = timeScale;
     }
 
+    /**
+     * Makes the movie fragmented: the movie atom is written before the first fragment and every fragment of the given media duration is written as
+     * a movie fragment atom followed by its media data. A fragmented movie stays playable if recording is interrupted, can be played while it is
+     * still being written, and only the current fragment is held in memory.
+     * <p>
+     * The video dimension, and for H.264 the decoder configuration, have to be known when the first fragment is written. Must be set before the
+     * first frame is written. The default value is 0, which writes a single movie atom when the movie is finished.
+     *
+     * @param seconds media duration of a fragment in seconds, 0 to not fragment the movie
+     */
+    public void setFragmentDuration(int seconds) {
+        checkArgument(seconds >= 0, "Fragment duration should not be negative, but was %s", seconds);
+        checkState(state != States.STARTED, "Fragment duration can not be changed once the movie has been started.");
+        this.fragmentDuration = seconds;
+    }
+
+    /**
+     * Moves the movie atom in front of the media data once the movie is closed, so that players can start playing the movie before they have read
+     * all of it. This rewrites the whole movie file, streaming the media data into a copy. It has no effect on fragmented movies, whose movie atom
+     * is written first anyway. The default value is false.
+     *
+     * @param fastStart whether the movie atom is moved in front of the media data
+     */
+    public void setFastStart(boolean fastStart) {
+        this.fastStart = fastStart;
+    }
+
     /**
      * Returns the video compression quality.
      *
@@ -233,13 +390,20 @@ public final class QuickTimeOutputStream {
         this.imgHeight = height;
     }
 
+    /**
+     * Sets the AVCDecoderConfigurationRecord describing H.264 video, which is required before the H.264 movie is finished.
+     *
+     * @param decoderConfiguration the record as stored in the {@code avcC} atom
+     */
+    public void setVideoDecoderConfiguration(byte[] decoderConfiguration) {
+        checkState(videoFormat == VideoFormat.H264, "Decoder configuration is only used by H.264 video, but video format is %s", videoFormat);
+        this.decoderConfiguration = checkNotNull(decoderConfiguration, "decoderConfiguration").clone();
+    }
+
     private void writeEpilog() {
         try {
             Date modificationTime = new Date();
-            int duration = 0;
-            for (Sample s : videoFrames) {
-                duration += s.duration;
-            }
+            int duration = (int) videoFrames.getDuration();
             /* Movie Atom */
             CompositeAtom movieAtom = new CompositeAtom(MOVIE, out);
             movieAtom.add(createMovieHeaderAtom(modificationTime, duration, out));
@@ -679,6 +843,9 @@ public final class QuickTimeOutputStream {
         sampleTableAtom.add(createSamplesToChunksMappingAtom(out));
         sampleTableAtom.add(createSamplesSizeAtom(out));
         sampleTableAtom.add(createChunkOffsetTableAtom(out));
+        if (videoFrames.hasNonSyncSamples()) {
+            sampleTableAtom.add(createSyncSampleAtom(out));
+        }
         return sampleTableAtom;
     }
 
@@ -737,6 +904,10 @@ public final class QuickTimeOutputStream {
                 writePngSampleDescriptionAtomData(d);
                 break;
             }
+            case H264: {
+                writeAvcSampleDescriptionAtomData(d);
+                break;
+            }
             default:
                 throw new IllegalStateException("Such video format is not supported: " + videoFormat);
         }
@@ -1003,6 +1174,75 @@ public final class QuickTimeOutputStream {
         // color table.
     }
 
+    private void writeAvcSampleDescriptionAtomData(DataAtomOutputStream d) throws IOException {
+        d.writeInt(86 + 8 + decoderConfiguration.length); // sampleDescriptionTable[0].size
+        // The video sample description is followed by the avcC atom.
+
+        d.writeType(AVC); // sampleDescriptionTable[0].type
+
+        d.write(new byte[6]); // sampleDescriptionTable[0].reserved
+        // Six bytes that must be set to 0.
+
+        d.writeShort(1); // sampleDescriptionTable[0].dataReferenceIndex
+
+        d.writeShort(0); // sampleDescriptionTable.videoSampleDescription.version
+        d.writeShort(0); // sampleDescriptionTable.videoSampleDescription.revisionLevel
+        d.writeType(JAVA); // sampleDescriptionTable.videoSampleDescription.manufacturer
+        d.writeInt(0); // sampleDescriptionTable.videoSampleDescription.temporalQuality
+        d.writeInt(512); // sampleDescriptionTable.videoSampleDescription.spatialQuality
+        d.writeUShort(imgWidth); // sampleDescriptionTable.videoSampleDescription.width
+        d.writeUShort(imgHeight); // sampleDescriptionTable.videoSampleDescription.height
+        d.writeFixed16D16(72.0); // sampleDescriptionTable.videoSampleDescription.horizontalResolution
+        d.writeFixed16D16(72.0); // sampleDescriptionTable.videoSampleDescription.verticalResolution
+        d.writeInt(0); // sampleDescriptionTable.videoSampleDescription.dataSize
+        d.writeShort(1); // sampleDescriptionTable.videoSampleDescription.frameCount
+        d.writePString("H.264", 32); // sampleDescriptionTable.videoSampleDescription.compressorName
+        d.writeShort(24); // sampleDescriptionTable.videoSampleDescription.depth
+        d.writeShort(-1); // sampleDescriptionTable.videoSampleDescription.colorTableID
+
+        /*
+         * typedef struct { int size; magic type; byte[size - 8] avcDecoderConfigurationRecord; } avcConfigurationAtom;
+         */
+        d.writeInt(8 + decoderConfiguration.length); // avcConfigurationAtom.size
+        d.writeType(AVC_CONFIGURATION); // avcConfigurationAtom.type
+        d.write(decoderConfiguration); // avcConfigurationAtom.avcDecoderConfigurationRecord
+        // The AVCDecoderConfigurationRecord as specified in ISO/IEC 14496-15:
+        // profile, level, NAL unit length size and the parameter sets.
+    }
+
+    /**
+     * sync sample atom
+     * The sync sample atom identifies the key frames in the media. If this
+     * atom is not present, every sample is a key frame.
+     *
+     * @param out ImageOutputStream for this data atom
+     * @return filled Sync Sample Atom
+     * @throws IOException if any write operation fails
+     */
+    private DataAtom createSyncSampleAtom(ImageOutputStream out) throws IOException {
+        DataAtom syncSampleAtom = new DataAtom(SYNC_SAMPLE, out);
+
+        /*
+         * typedef struct { byte version; byte[3] flags; int numberOfEntries; int syncSampleTable[numberOfEntries]; } syncSampleAtom;
+         */
+        DataAtomOutputStream d = syncSampleAtom.getOutputStream();
+        d.write(0); // version
+        d.write(0); // flag[0]
+        d.write(0); // flag[1]
+        d.write(0); // flag[2]
+
+        d.writeUInt(videoFrames.getSyncSampleCount()); // number of entries
+
+        for (int i = 0; i < videoFrames.size(); i++) {
+            if (videoFrames.isSync(i)) {
+                d.writeUInt(i + 1); // sample number
+                // The table is sorted in ascending sample number order, sample
+                // numbers start at 1.
+            }
+        }
+        return syncSampleAtom;
+    }
+
     /**
      * sample size atom
      * The sample size atom contains the sample count and a table giving the
@@ -1043,8 +1283,8 @@ public final class QuickTimeOutputStream {
         // A 32-bit integer containing the count of entries in the sample size
         // table.
 
-        for (Sample s : videoFrames) {
-            d.writeUInt(s.length); // sample size
+        for (int i = 0; i < videoFrames.size(); i++) {
+            d.writeUInt(videoFrames.getLength(i)); // sample size
             // The size field contains the size, in bytes, of the sample in
             // question. The table is indexed by sample number-the first entry
             // corresponds to the first sample, the second entry is for the
@@ -1066,7 +1306,7 @@ public final class QuickTimeOutputStream {
      * @throws IOException if any write operation fails
      */
     private DataAtom createChunkOffsetTableAtom(ImageOutputStream out) throws IOException {
-        if (videoFrames.size() == 0 || videoFrames.getLast().offset <= 0xffffffffL) {
+        if (videoFrames.isEmpty() || videoFrames.getOffset(videoFrames.size() - 1) <= 0xffffffffL) {
             return create32BitChunkOffsetTableAtom(out);
         }
         return create64BitChunkOffsetTableAtom(out);
@@ -1101,8 +1341,8 @@ public final class QuickTimeOutputStream {
         // A 32-bit integer containing the count of entries in the chunk
         // offset table.
 
-        for (Sample s : videoFrames) {
-            d.writeUInt(s.offset); // offset
+        for (int i = 0; i < videoFrames.size(); i++) {
+            d.writeUInt(videoFrames.getOffset(i)); // offset
             // The offset contains the byte offset from the beginning of the
             // data stream to the chunk. The table is indexed by chunk
             // number-the first table entry corresponds to the first chunk,
@@ -1140,8 +1380,8 @@ public final class QuickTimeOutputStream {
         // A 32-bit integer containing the count of entries in the chunk
         // offset table.
 
-        for (Sample s : videoFrames) {
-            d.writeLong(s.offset); // offset
+        for (int i = 0; i < videoFrames.size(); i++) {
+            d.writeLong(videoFrames.getOffset(i)); // offset
             // The offset contains the byte offset from the beginning of the
             // data stream to the chunk. The table is indexed by chunk
             // number-the first table entry corresponds to the first chunk,
@@ -1178,6 +1418,11 @@ public final class QuickTimeOutputStream {
         d.write(0); // flag[2]
         // A 3-byte space for time-to-sample flags. Set this field to 0.
 
+        if (videoFrames.isEmpty()) {
+            d.writeInt(0); // number of entries
+            // The sample tables in the movie atom of a fragmented movie are empty.
+            return samplesToChunksMappingAtom;
+        }
         d.writeInt(1); // number of entries
         // A 32-bit integer containing the count of entries in the
         // sample-to-chunk table.
@@ -1225,44 +1470,16 @@ public final class QuickTimeOutputStream {
         d.write(0); // flag[2]
         // A 3-byte space for time-to-sample flags. Set this field to 0.
 
-        // count runs of video frame durations
-        int runCount = 1;
-        int prevDuration = videoFrames.size() == 0 ? 0 : videoFrames.get(0).duration;
-        for (Sample s : videoFrames) {
-            if (s.duration != prevDuration) {
-                runCount++;
-                prevDuration = s.duration;
-            }
-        }
-        d.writeInt(runCount); // numberOfEntries
+        d.writeInt(videoFrames.getRunCount()); // numberOfEntries
         // A 32-bit integer containing the count of entries in the
         // time-to-sample table.
 
-        int runLength = 0;
-        prevDuration = videoFrames.size() == 0 ? 0 : videoFrames.get(0).duration;
-        for (Sample s : videoFrames) {
-            if (s.duration != prevDuration) {
-                if (runLength > 0) {
-                    d.writeInt(runLength); // timeToSampleTable[0].sampleCount
-                    // A 32-bit integer that specifies the number of consecutive
-                    // samples that have the same duration.
-
-                    d.writeInt(prevDuration); // timeToSampleTable[0].sampleDuration
-                    // A 32-bit integer that specifies the duration of each
-                    // sample.
-                }
-                prevDuration = s.duration;
-                runLength = 1;
-            } else {
-                runLength++;
-            }
-        }
-        if (runLength > 0) {
-            d.writeInt(runLength); // timeToSampleTable[0].sampleCount
+        for (int run = 0; run < videoFrames.getRunCount(); run++) {
+            d.writeInt(videoFrames.getRunLength(run)); // timeToSampleTable[run].sampleCount
             // A 32-bit integer that specifies the number of consecutive
             // samples that have the same duration.
 
-            d.writeInt(prevDuration); // timeToSampleTable[0].sampleDuration
+            d.writeInt(videoFrames.getRunDuration(run)); // timeToSampleTable[run].sampleDuration
             // A 32-bit integer that specifies the duration of each
             // sample.
         }
@@ -1381,72 +1598,137 @@ public final class QuickTimeOutputStream {
      */
     public void writeFrame(BufferedImage image, int duration) {
         checkArgument(duration >= 0, "duration should be greater than 0, but was %s", duration);
+        checkState(videoFormat != VideoFormat.H264, "H.264 video can not be encoded from images, its samples should be written as they are");
+        ensureOpen();
+        ensureStarted();
+        checkDimension(image.getWidth(), image.getHeight());
+        try {
+            long offset = mediaPosition();
+            writeMedia(encode(image).toByteBuffer());
+            long length = mediaPosition() - offset;
+            addSample(offset, length, duration, true);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    /**
+     * Encodes a frame in the video format of the movie without writing it, so that frames can be encoded by several threads at once and written
+     * by {@link #writeEncodedFrame(byte[], int, int, int)} afterwards.
+     * <p>
+     * This method does not touch the movie and may be called from any thread, concurrently with the other methods.
+     *
+     * @param image The frame image.
+     * @return the encoded frame
+     * @throws IORuntimeException if encoding the image failed.
+     */
+    public byte[] encodeFrame(BufferedImage image) {
+        checkState(videoFormat != VideoFormat.H264, "H.264 video can not be encoded from images, its samples should be written as they are");
+        try {
+            return encode(image).toByteArray();
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    /**
+     * Encodes a frame in the video format of the movie into the given buffer, like {@link #encodeFrame(BufferedImage)} but without copying the
+     * encoded frame out of the buffer. May be called from any thread, concurrently with the other methods.
+     *
+     * @param image  The frame image.
+     * @param target The buffer to encode the frame into, its previous contents is discarded.
+     * @throws IORuntimeException if encoding the image failed.
+     */
+    void encodeFrame(BufferedImage image, ByteArrayImageOutputStream target) {
+        checkState(videoFormat != VideoFormat.H264, "H.264 video can not be encoded from images, its samples should be written as they are");
+        try {
+            encoders.get().encode(image, quality, target);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes a frame encoded by {@link #encodeFrame(BufferedImage)} to the video track.
+     *
+     * @param data     The encoded frame.
+     * @param width    The width of the frame image.
+     * @param height   The height of the frame image.
+     * @param duration The duration of the frame in time scale units.
+     * @throws IllegalArgumentException if the duration is less than 1, or if the dimension of the frame does not match the dimension of the video track.
+     * @throws IORuntimeException       if writing the frame failed.
+     */
+    public void writeEncodedFrame(byte[] data, int width, int height, int duration) {
+        checkArgument(duration >= 0, "duration should be greater than 0, but was %s", duration);
+        ensureOpen();
+        ensureStarted();
+        checkDimension(width, height);
+        writeSample(data, 0, data.length, duration, true);
+    }
+
+    /**
+     * Writes encoded frames to the video track one after another. Unless the movie is fragmented, the frames are written to the file with a single
+     * gathering write, and if that write fails none of the frames is added to the track.
+     *
+     * @param frames    Heap buffers holding the encoded frames between their position and limit.
+     * @param width     The width of the frame images.
+     * @param height    The height of the frame images.
+     * @param durations The durations of the frames in time scale units.
+     * @throws IllegalArgumentException if a duration is less than 1, or if the dimension of the frames does not match the dimension of the video track.
+     * @throws IORuntimeException       if writing the frames failed.
+     */
+    public void writeEncodedFrames(List<ByteBuffer> frames, int width, int height, int[] durations) {
+        checkArgument(frames.size() == durations.length, "%s durations were given for %s frames", durations.length, frames.size());
+        for (int duration : durations) {
+            checkArgument(duration >= 0, "duration should be greater than 0, but was %s", duration);
+        }
         ensureOpen();
         ensureStarted();
+        checkDimension(width, height);
+        if (isFragmented()) {
+            // a fragment may be completed in between, so the frames are added one by one
+            for (int i = 0; i < frames.size(); i++) {
+                ByteBuffer frame = frames.get(i);
+                writeSample(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), durations[i], true);
+            }
+            return;
+        }
+        try {
+            ByteBuffer[] buffers = new ByteBuffer[frames.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = frames.get(i).duplicate();
+            }
+            long offset = mediaPosition();
+            writeMedia(buffers);
+            // the samples are only added once their data is in the file, the gathering write consumed the duplicates
+            for (int i = 0; i < buffers.length; i++) {
+                int length = frames.get(i).remaining();
+                addSample(offset, length, durations[i], true);
+                offset += length;
+            }
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
 
+    private void checkDimension(int width, int height) {
         // Get the dimensions of the first image
         if (imgWidth == UNSPECIFIED) {
-            imgWidth = image.getWidth();
-            imgHeight = image.getHeight();
+            imgWidth = width;
+            imgHeight = height;
         } else {
             // The dimension of the image must match the dimension of the video
             // track
-            checkState(imgWidth == image.getWidth() && imgHeight == image.getHeight(),
+            checkState(imgWidth == width && imgHeight == height,
                     "Dimensions of image[%s] (width=%s, height=%s) differs from image[0] (width=%s, height=%s",
-                    videoFrames.size(), image.getWidth(), image.getHeight(), imgWidth, imgHeight);
-        }
-        try {
-            long offset = out.getStreamPosition();
-            switch (videoFormat) {
-                case RAW: {
-                    WritableRaster raster = image.getRaster();
-                    int[] raw = new int[imgWidth * 3]; // holds a scanline of raw image
-                    // data with 3 channels of 32
-                    // bit data
-                    byte[] bytes = new byte[imgWidth * 3]; // holds a scanline of raw
-                    // image data with 3
-                    // channels of 8 bit data
-                    int n = imgWidth * 3;
-                    for (int y = 0; y < imgHeight; y++) {
-                        raster.getPixels(0, y, imgWidth, 1, raw);
-                        for (int k = 0; k < n; k++) {
-                            bytes[k] = (byte) raw[k];
-                        }
-                        mdatAtom.getOutputStream().write(bytes);
-                    }
-                    break;
-                }
-                case JPG: {
-                    ImageWriter iw = ImageIO.getImageWritersByMIMEType("image/jpeg").next();
-                    ImageWriteParam iwParam = iw.getDefaultWriteParam();
-                    iwParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                    iwParam.setCompressionQuality(quality);
-                    MemoryCacheImageOutputStream imgOut = new MemoryCacheImageOutputStream(mdatAtom.getOutputStream());
-                    iw.setOutput(imgOut);
-                    IIOImage img = new IIOImage(image, null, null);
-                    iw.write(null, img, iwParam);
-                    iw.dispose();
-                    break;
-                }
-                case PNG:
-                default: {
-                    ImageWriter iw = ImageIO.getImageWritersByMIMEType("image/png").next();
-                    ImageWriteParam iwParam = iw.getDefaultWriteParam();
-                    MemoryCacheImageOutputStream imgOut = new MemoryCacheImageOutputStream(mdatAtom.getOutputStream());
-                    iw.setOutput(imgOut);
-                    IIOImage img = new IIOImage(image, null, null);
-                    iw.write(null, img, iwParam);
-                    iw.dispose();
-                    break;
-                }
-            }
-            long length = out.getStreamPosition() - offset;
-            videoFrames.add(new Sample(duration, offset, length));
-        } catch (IOException e) {
-            throw new IORuntimeException(e);
+                    videoFrames.size(), width, height, imgWidth, imgHeight);
         }
     }
 
+    private ByteArrayImageOutputStream encode(BufferedImage image) throws IOException {
+        return encoders.get().encode(image, quality);
+    }
+
     /**
      * Writes a frame from a file to the video track.
      * <p>
@@ -1462,47 +1744,251 @@ public final class QuickTimeOutputStream {
      * @throws IORuntimeException    if writing the image failed.
      */
     public void writeFrame(File file, int duration) {
-        try (FileInputStream in = new FileInputStream(file)) {
-            writeFrame(in, duration);
+        checkArgument(duration >= 0, "duration should be greater than 0, but was %s", duration);
+        ensureOpen();
+        ensureStarted();
+        try {
+            long offset = mediaPosition();
+            if (isFragmented()) {
+                Files.copy(file.toPath(), fragmentData);
+            } else {
+                try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    mdatAtom.addDirectlyWritten(out.transferFrom(in));
+                } catch (IOException e) {
+                    discardMedia(offset, e);
+                    throw e;
+                }
+            }
+            long length = mediaPosition() - offset;
+            addSample(offset, length, duration, true);
         } catch (IOException e) {
             throw new IORuntimeException(e);
         }
     }
 
     /**
-     * Writes a frame to the video track.
-     * <p>
-     * This method does not inspect the contents of the input stream. The contents has to match the video format. For example, it is your responsibility
-     * to only add JPG files if you have chosen the JPEG video format.
+     * Writes an already encoded sample to the video track as it is, e.g. an H.264 access unit with length-prefixed NAL units.
      * <p>
-     * If you add all frames from files or from input streams, then you have to explicitly set the dimension of the video track before you call finish()
-     * or stop().
+     * The dimension of the video track has to be set explicitly before the movie is finished.
      *
-     * @param in       The input stream which holds the image data.
-     * @param duration The duration of the frame in time scale units.
-     * @throws IllegalArgumentException if the duration is less than 1.
-     * @throws IORuntimeException       if writing the image failed.
+     * @param data     array holding the sample
+     * @param offset   offset of the sample in the array
+     * @param length   length of the sample
+     * @param duration The duration of the sample in time scale units.
+     * @param sync     whether the sample is a key frame, which can be decoded without any preceding sample
+     * @throws IORuntimeException if writing the sample failed.
      */
-    private void writeFrame(InputStream in, int duration) {
+    public void writeSample(byte[] data, int offset, int length, int duration, boolean sync) {
         checkArgument(duration >= 0, "duration should be greater than 0, but was %s", duration);
         ensureOpen();
         ensureStarted();
         try {
-            long offset = out.getStreamPosition();
-            try (OutputStream mdatOut = mdatAtom.getOutputStream()) {
-                byte[] buf = new byte[512];
-                int len;
-                while ((len = in.read(buf)) != -1) {
-                    mdatOut.write(buf, 0, len);
-                }
-                long length = out.getStreamPosition() - offset;
-                videoFrames.add(new Sample(duration, offset, length));
-            }
+            long sampleOffset = mediaPosition();
+            writeMedia(ByteBuffer.wrap(data, offset, length));
+            addSample(sampleOffset, length, duration, sync);
         } catch (IOException e) {
             throw new IORuntimeException(e);
         }
     }
 
+    /**
+     * Writes the samples added since the previous fragment as a movie fragment, preceded by the movie atom if this is the first fragment.
+     */
+    private void writeFragment() throws IOException {
+        SampleTable samples = videoFrames;
+        if (movieExtendsHeaderOffset == 0) {
+            checkDescribed();
+            // the sample tables of the movie atom stay empty, all samples are described by the fragments
+            videoFrames = new SampleTable();
+            CompositeAtom movieAtom = new CompositeAtom(MOVIE, out);
+            movieAtom.add(createMovieHeaderAtom(creationTime, 0, out));
+            movieAtom.add(createTrackAtom(creationTime, 0, out));
+            movieAtom.add(createMovieExtendsAtom(out));
+            movieAtom.finish();
+            videoFrames = samples;
+        }
+        if (samples.isEmpty()) {
+            return;
+        }
+        CompositeAtom fragmentAtom = new CompositeAtom(MOVIE_FRAGMENT, out);
+        fragmentAtom.add(createMovieFragmentHeaderAtom(out));
+        CompositeAtom trackFragmentAtom = new CompositeAtom(TRACK_FRAGMENT, out);
+        fragmentAtom.add(trackFragmentAtom);
+        DataAtom trackFragmentHeaderAtom = createTrackFragmentHeaderAtom(out);
+        trackFragmentAtom.add(trackFragmentHeaderAtom);
+        trackFragmentAtom.add(createTrackFragmentDecodeTimeAtom(out));
+        trackFragmentAtom.add(createTrackRunAtom(samples, out));
+        fragmentAtom.finish();
+
+        DataAtom mediaDataAtom = new DataAtom(MEDIA_DATA, out);
+        // the samples are addressed relative to the start of the media data of the fragment
+        long pointer = out.getStreamPosition();
+        out.seek(trackFragmentHeaderAtom.getOffset() + 16);
+        out.writeLong(mediaDataAtom.getOffset() + 8); // trackFragmentHeader.baseDataOffset
+        out.seek(pointer);
+        fragmentData.writeTo(mediaDataAtom.getOutputStream());
+        mediaDataAtom.finish();
+
+        fragmentData.reset();
+        fragmentStartTime += samples.getDuration();
+        samples.clear();
+        // the fragment is complete, so it can be read while the next one is being recorded
+        out.flush();
+    }
+
+    /**
+     * Movie extends atom
+     * The movie extends atom announces movie fragments following the movie atom and sets the defaults of the track fragments.
+     *
+     * @param out ImageOutputStream for this data atom
+     * @return filled Movie Extends Atom
+     * @throws IOException if any write operation fails
+     */
+    private CompositeAtom createMovieExtendsAtom(ImageOutputStream out) throws IOException {
+        CompositeAtom movieExtendsAtom = new CompositeAtom(MOVIE_EXTENDS, out);
+
+        /*
+         * typedef struct { byte version; byte[3] flags; int fragmentDuration; } movieExtendsHeaderAtom;
+         */
+        DataAtom movieExtendsHeaderAtom = new DataAtom(MOVIE_EXTENDS_HEADER, out);
+        DataAtomOutputStream d = movieExtendsHeaderAtom.getOutputStream();
+        d.writeInt(0); // version and flags
+        d.writeInt(0); // fragmentDuration
+        // The duration of the whole movie including the fragments, written
+        // once the movie is finished.
+        movieExtendsHeaderOffset = movieExtendsHeaderAtom.getOffset();
+        movieExtendsAtom.add(movieExtendsHeaderAtom);
+
+        /*
+         * typedef struct { byte version; byte[3] flags; int trackId; int defaultSampleDescriptionIndex; int defaultSampleDuration; int
+         * defaultSampleSize; int defaultSampleFlags; } trackExtendsAtom;
+         */
+        DataAtom trackExtendsAtom = new DataAtom(TRACK_EXTENDS, out);
+        d = trackExtendsAtom.getOutputStream();
+        d.writeInt(0); // version and flags
+        d.writeInt(1); // trackId
+        d.writeInt(1); // defaultSampleDescriptionIndex
+        d.writeInt(0); // defaultSampleDuration
+        d.writeInt(0); // defaultSampleSize
+        d.writeInt(0); // defaultSampleFlags
+        // Every fragment states the duration, size and flags of its samples.
+        movieExtendsAtom.add(trackExtendsAtom);
+        return movieExtendsAtom;
+    }
+
+    /**
+     * Movie fragment header atom
+     *
+     * @param out ImageOutputStream for this data atom
+     * @return filled Movie Fragment Header Atom
+     * @throws IOException if any write operation fails
+     */
+    private DataAtom createMovieFragmentHeaderAtom(ImageOutputStream out) throws IOException {
+        DataAtom movieFragmentHeaderAtom = new DataAtom(MOVIE_FRAGMENT_HEADER, out);
+
+        /*
+         * typedef struct { byte version; byte[3] flags; int sequenceNumber; } movieFragmentHeaderAtom;
+         */
+        DataAtomOutputStream d = movieFragmentHeaderAtom.getOutputStream();
+        d.writeInt(0); // version and flags
+        d.writeInt(++fragmentSequenceNumber); // sequenceNumber
+        // The ordinal number of this fragment, starting at 1.
+        return movieFragmentHeaderAtom;
+    }
+
+    /**
+     * Track fragment header atom
+     * The base data offset is written as 0 and patched once the position of the media data of the fragment is known.
+     *
+     * @param out ImageOutputStream for this data atom
+     * @return filled Track Fragment Header Atom
+     * @throws IOException if any write operation fails
+     */
+    private DataAtom createTrackFragmentHeaderAtom(ImageOutputStream out) throws IOException {
+        DataAtom trackFragmentHeaderAtom = new DataAtom(TRACK_FRAGMENT_HEADER, out);
+
+        /*
+         * typedef struct { byte version; byte[3] flags; int trackId; long baseDataOffset; } trackFragmentHeaderAtom;
+         */
+        DataAtomOutputStream d = trackFragmentHeaderAtom.getOutputStream();
+        d.write(0); // version
+        d.write(0); // flag[0]
+        d.write(0); // flag[1]
+        d.write(0x1); // flag[2]
+        // The base data offset is present.
+
+        d.writeInt(1); // trackId
+
+        d.writeLong(0); // baseDataOffset
+        // The absolute file offset the data offsets of the track runs are
+        // relative to.
+        return trackFragmentHeaderAtom;
+    }
+
+    /**
+     * Track fragment decode time atom
+     *
+     * @param out ImageOutputStream for this data atom
+     * @return filled Track Fragment Decode Time Atom
+     * @throws IOException if any write operation fails
+     */
+    private DataAtom createTrackFragmentDecodeTimeAtom(ImageOutputStream out) throws IOException {
+        DataAtom trackFragmentDecodeTimeAtom = new DataAtom(TRACK_FRAGMENT_DECODE_TIME, out);
+
+        /*
+         * typedef struct { byte version; byte[3] flags; long baseMediaDecodeTime; } trackFragmentDecodeTimeAtom;
+         */
+        DataAtomOutputStream d = trackFragmentDecodeTimeAtom.getOutputStream();
+        d.write(1); // version
+        d.write(0); // flag[0]
+        d.write(0); // flag[1]
+        d.write(0); // flag[2]
+
+        d.writeLong(fragmentStartTime); // baseMediaDecodeTime
+        // The media time of the first sample of the fragment.
+        return trackFragmentDecodeTimeAtom;
+    }
+
+    /**
+     * Track run atom
+     * The track run atom describes the samples of the fragment, which are stored one after another in its media data.
+     *
+     * @param samples samples of the fragment
+     * @param out     ImageOutputStream for this data atom
+     * @return filled Track Run Atom
+     * @throws IOException if any write operation fails
+     */
+    private DataAtom createTrackRunAtom(SampleTable samples, ImageOutputStream out) throws IOException {
+        DataAtom trackRunAtom = new DataAtom(TRACK_RUN, out);
+
+        /*
+         * typedef struct { byte version; byte[3] flags; int sampleCount; int dataOffset; trackRunSample samples[sampleCount]; } trackRunAtom;
+         *
+         * typedef struct { int sampleDuration; int sampleSize; int sampleFlags; } trackRunSample;
+         */
+        DataAtomOutputStream d = trackRunAtom.getOutputStream();
+        d.write(0); // version
+        d.write(0); // flag[0]
+        d.write(0x7); // flag[1]
+        d.write(0x1); // flag[2]
+        // The data offset, and the duration, size and flags of every sample
+        // are present.
+
+        d.writeUInt(samples.size()); // sampleCount
+
+        d.writeInt((int) samples.getOffset(0)); // dataOffset
+        // The offset of the first sample relative to the base data offset.
+
+        for (int i = 0; i < samples.size(); i++) {
+            d.writeUInt(samples.getDuration(i)); // sampleDuration
+            d.writeUInt(samples.getLength(i)); // sampleSize
+            d.writeInt(samples.isSync(i) ? 0x02000000 : 0x01010000); // sampleFlags
+            // Key frames do not depend on other samples, other samples depend
+            // on preceding ones and are no sync samples.
+        }
+        return trackRunAtom;
+    }
+
     private void writeProlog() {
         try {
             /*
@@ -1537,38 +2023,6 @@ public final class QuickTimeOutputStream {
      * Supported video formats.
      */
     public enum VideoFormat {
-        RAW, JPG, PNG
-    }
-
-    /**
-     * QuickTime stores media data in samples. A sample is a single element in a sequence of time-ordered data. Samples are stored in the mdat atom.
-     */
-    private static class Sample {
-
-        /**
-         * Offset of the sample relative to the start of the QuickTime file.
-         */
-        private final long offset;
-        /**
-         * Data length of the sample.
-         */
-        private final long length;
-        /**
-         * The duration of the sample in time scale units.
-         */
-        private final int duration;
-
-        /**
-         * Creates a new sample.
-         *
-         * @param duration The duration of the sample in time scale units.
-         * @param offset   Offset of the sample relative to the start of the QuickTime file.
-         * @param length   Data length of the sample.
-         */
-        Sample(int duration, long offset, long length) {
-            this.duration = duration;
-            this.offset = offset;
-            this.length = length;
-        }
+        RAW, JPG, PNG, H264
     }
 }
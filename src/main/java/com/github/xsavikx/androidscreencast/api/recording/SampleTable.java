@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 Yurii Serhiichuk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.github.xsavikx.androidscreencast.api.recording;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Sample table of a video track, stored column by column in growable primitive arrays.
+ * <p>
+ * QuickTime stores media data in samples. A sample is a single element in a sequence of time-ordered data, samples are stored in the mdat atom.
+ * The durations are also kept run-length encoded as samples are added, which is how the time-to-sample atom stores them, so that every table of
+ * the sample table atom is written in a single pass even for recordings with millions of samples.
+ */
+final class SampleTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Offsets of the samples relative to the start of the QuickTime file, or to the start of the fragment media data in fragmented movies.
+     */
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    /**
+     * Data lengths of the samples.
+     */
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    /**
+     * Durations of the samples in time scale units.
+     */
+    private int[] durations = new int[INITIAL_CAPACITY];
+    /**
+     * Indices of the samples which are not key frames.
+     */
+    private final BitSet nonSyncSamples = new BitSet();
+    private int[] runLengths = new int[INITIAL_CAPACITY];
+    private int[] runDurations = new int[INITIAL_CAPACITY];
+    private int size;
+    private int runCount;
+    private long duration;
+
+    /**
+     * Appends a sample.
+     *
+     * @param offset   offset of the sample
+     * @param length   data length of the sample
+     * @param duration duration of the sample in time scale units
+     * @param sync     whether the sample is a key frame
+     */
+    void add(long offset, long length, int duration, boolean sync) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            durations = Arrays.copyOf(durations, size * 2);
+        }
+        offsets[size] = offset;
+        lengths[size] = (int) length;
+        durations[size] = duration;
+        if (!sync) {
+            nonSyncSamples.set(size);
+        }
+        size++;
+        this.duration += duration;
+        if (runCount > 0 && runDurations[runCount - 1] == duration) {
+            runLengths[runCount - 1]++;
+        } else {
+            if (runCount == runLengths.length) {
+                runLengths = Arrays.copyOf(runLengths, runCount * 2);
+                runDurations = Arrays.copyOf(runDurations, runCount * 2);
+            }
+            runLengths[runCount] = 1;
+            runDurations[runCount] = duration;
+            runCount++;
+        }
+    }
+
+    /**
+     * Removes all samples, keeping the allocated capacity.
+     */
+    void clear() {
+        size = 0;
+        runCount = 0;
+        duration = 0;
+        nonSyncSamples.clear();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @return data length of the sample, as an unsigned 32-bit value
+     */
+    long getLength(int index) {
+        return lengths[index] & 0xffffffffL;
+    }
+
+    int getDuration(int index) {
+        return durations[index];
+    }
+
+    boolean isSync(int index) {
+        return !nonSyncSamples.get(index);
+    }
+
+    /**
+     * @return sum of the durations of all samples in time scale units
+     */
+    long getDuration() {
+        return duration;
+    }
+
+    boolean hasNonSyncSamples() {
+        return !nonSyncSamples.isEmpty();
+    }
+
+    int getSyncSampleCount() {
+        return size - nonSyncSamples.cardinality();
+    }
+
+    /**
+     * @return number of runs of consecutive samples with the same duration
+     */
+    int getRunCount() {
+        return runCount;
+    }
+
+    int getRunLength(int run) {
+        return runLengths[run];
+    }
+
+    int getRunDuration(int run) {
+        return runDurations[run];
+    }
+}
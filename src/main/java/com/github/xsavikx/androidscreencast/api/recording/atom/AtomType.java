@@ -43,14 +43,26 @@ public enum AtomType {
     JAVA("java"),
     JPEG("jpeg"),
     PNG("png "),
+    AVC("avc1"),
+    AVC_CONFIGURATION("avcC"),
     TIME_TO_SAMPLE_MAPPING("stts"),
     SAMPLE_TO_CHUNK_MAPPING("stsc"),
     SAMPLE_SIZE("stsz"),
     STANDARD_CHUNK_OFFSET_TABLE("stco"),
     WIDE_CHUNK_OFFSET_TABLE("co64"),
+    SYNC_SAMPLE("stss"),
     FILE_TYPE("ftyp"),
     QUICK_TIME("qt  "),
     WIDE("wide"),
+    MOVIE_EXTENDS("mvex"),
+    MOVIE_EXTENDS_HEADER("mehd"),
+    TRACK_EXTENDS("trex"),
+    MOVIE_FRAGMENT("moof"),
+    MOVIE_FRAGMENT_HEADER("mfhd"),
+    TRACK_FRAGMENT("traf"),
+    TRACK_FRAGMENT_HEADER("tfhd"),
+    TRACK_FRAGMENT_DECODE_TIME("tfdt"),
+    TRACK_RUN("trun"),
     DATA_HANDLER("dhlr");
     /**
      * String representation of AtomType that must have exactly 4 characters
@@ -32,6 +32,10 @@ import static com.github.xsavikx.androidscreencast.api.recording.atom.AtomType.W
 public final class WideDataAtom extends DataAtom {
 
     private static final int HEADER_SIZE = 2;
+    /**
+     * Number of bytes of the atom which were written to the image output stream directly.
+     */
+    private long directlyWritten;
 
     /**
      * Creates a new DataAtom at the current position of the ImageOutputStream.
@@ -77,9 +81,19 @@ public final class WideDataAtom extends DataAtom {
         }
     }
 
+    /**
+     * Accounts for data appended to the image output stream directly instead of through {@link #getOutputStream()}, e.g. transferred from another
+     * channel, so that it is included in the size of the atom.
+     *
+     * @param length number of bytes appended
+     */
+    public void addDirectlyWritten(long length) {
+        directlyWritten += length;
+    }
+
     @Override
     public long size() {
-        long size = HEADER_ELEMENT_SIZE + data.size();
+        long size = HEADER_ELEMENT_SIZE + data.size() + directlyWritten;
         return (size > MAXIMUM_ATOM_SIZE) ? size + HEADER_ELEMENT_SIZE : size;
     }
 }
@@ -19,6 +19,7 @@ package com.github.xsavikx.androidscreencast.app;
 
 import com.android.ddmlib.IDevice;
 import com.github.xsavikx.androidscreencast.api.adb.AndroidDebugBridgeWrapper;
+import com.github.xsavikx.androidscreencast.api.adb.DeviceCommandScheduler;
 import com.github.xsavikx.androidscreencast.api.injector.Injector;
 import com.github.xsavikx.androidscreencast.configuration.ApplicationConfiguration;
 import com.github.xsavikx.androidscreencast.ui.JFrameMain;
@@ -38,16 +39,19 @@ public final class AndroidScreencastApplication extends SwingApplication {
     private final Injector injector;
     private final IDevice iDevice;
     private final AndroidDebugBridgeWrapper wrapper;
+    private final DeviceCommandScheduler scheduler;
     private transient boolean isStopped = false;
 
     @Inject
     public AndroidScreencastApplication(final Injector injector, final IDevice iDevice, final JFrameMain jFrameMain,
-                                        final ApplicationConfiguration applicationConfiguration, AndroidDebugBridgeWrapper wrapper) {
+                                        final ApplicationConfiguration applicationConfiguration, AndroidDebugBridgeWrapper wrapper,
+                                        final DeviceCommandScheduler scheduler) {
         super(applicationConfiguration);
         this.injector = injector;
         this.iDevice = iDevice;
         this.jFrameMain = jFrameMain;
         this.wrapper = wrapper;
+        this.scheduler = scheduler;
     }
 
     @Override
@@ -58,6 +62,7 @@ public final class AndroidScreencastApplication extends SwingApplication {
             return;
         }
         injector.stop();
+        scheduler.stop();
         wrapper.stop();
         for (final Frame frame : Frame.getFrames()) {
             frame.dispose();
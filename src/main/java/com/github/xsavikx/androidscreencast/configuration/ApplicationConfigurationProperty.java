@@ -26,7 +26,24 @@ public enum ApplicationConfigurationProperty {
     APP_WINDOW_WIDTH(APP_WINDOW_WIDTH_KEY, "1024"),
     APP_WINDOW_HEIGHT(APP_WINDOW_HEIGHT_KEY, "768"),
     APP_NATIVE_LOOK(APP_NATIVE_LOOK_KEY, "true"),
-    APP_DEBUG_ENABLED(APP_DEBUG_ENABLED_KEY, "false");
+    APP_DEBUG_ENABLED(APP_DEBUG_ENABLED_KEY, "false"),
+    APP_PARALLEL_CONVERSION(APP_PARALLEL_CONVERSION_KEY, "true"),
+    APP_CAPTURE_FPS(APP_CAPTURE_FPS_KEY, "30"),
+    APP_CAPTURE_IDLE_FPS(APP_CAPTURE_IDLE_FPS_KEY, "2"),
+    APP_CAPTURE_IN_FLIGHT_FRAMES(APP_CAPTURE_IN_FLIGHT_FRAMES_KEY, "2"),
+    APP_CAPTURE_KEEPALIVE_INTERVAL(APP_CAPTURE_KEEPALIVE_INTERVAL_KEY, "5"),
+    APP_RECORDING_FPS(APP_RECORDING_FPS_KEY, "10"),
+    APP_CAPTURE_MODE(APP_CAPTURE_MODE_KEY, "auto"),
+    APP_METRICS_LOG_INTERVAL(APP_METRICS_LOG_INTERVAL_KEY, "60"),
+    APP_METRICS_OVERLAY(APP_METRICS_OVERLAY_KEY, "false"),
+    APP_STREAM_BIT_RATE(APP_STREAM_BIT_RATE_KEY, "8000000"),
+    APP_RECORDING_QUEUE_SIZE(APP_RECORDING_QUEUE_SIZE_KEY, "4"),
+    APP_RECORDING_BACKPRESSURE(APP_RECORDING_BACKPRESSURE_KEY, "drop"),
+    APP_RECORDING_ENCODER_THREADS(APP_RECORDING_ENCODER_THREADS_KEY, "0"),
+    APP_RECORDING_TIME_SCALE(APP_RECORDING_TIME_SCALE_KEY, "600"),
+    APP_RECORDING_FRAGMENT_DURATION(APP_RECORDING_FRAGMENT_DURATION_KEY, "0"),
+    APP_RECORDING_FASTSTART(APP_RECORDING_FASTSTART_KEY, "false"),
+    APP_RECORDING_STREAM(APP_RECORDING_STREAM_KEY, "false");
     private final String propertyKey;
     private final String defaultValue;
 
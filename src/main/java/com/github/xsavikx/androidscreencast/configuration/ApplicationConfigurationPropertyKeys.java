@@ -25,6 +25,23 @@ public final class ApplicationConfigurationPropertyKeys {
     public static final String APP_WINDOW_HEIGHT_KEY = "app.window.height";
     public static final String APP_NATIVE_LOOK_KEY = "app.native.look";
     public static final String APP_DEBUG_ENABLED_KEY = "app.debug.enabled";
+    public static final String APP_PARALLEL_CONVERSION_KEY = "app.capture.parallel.conversion";
+    public static final String APP_CAPTURE_FPS_KEY = "app.capture.fps";
+    public static final String APP_CAPTURE_IDLE_FPS_KEY = "app.capture.idle.fps";
+    public static final String APP_CAPTURE_IN_FLIGHT_FRAMES_KEY = "app.capture.inflight.frames";
+    public static final String APP_CAPTURE_KEEPALIVE_INTERVAL_KEY = "app.capture.keepalive.interval";
+    public static final String APP_RECORDING_FPS_KEY = "app.recording.fps";
+    public static final String APP_CAPTURE_MODE_KEY = "app.capture.mode";
+    public static final String APP_METRICS_LOG_INTERVAL_KEY = "app.metrics.log.interval";
+    public static final String APP_METRICS_OVERLAY_KEY = "app.metrics.overlay";
+    public static final String APP_STREAM_BIT_RATE_KEY = "app.capture.stream.bitrate";
+    public static final String APP_RECORDING_QUEUE_SIZE_KEY = "app.recording.queue.size";
+    public static final String APP_RECORDING_BACKPRESSURE_KEY = "app.recording.backpressure";
+    public static final String APP_RECORDING_ENCODER_THREADS_KEY = "app.recording.encoder.threads";
+    public static final String APP_RECORDING_TIME_SCALE_KEY = "app.recording.timescale";
+    public static final String APP_RECORDING_FRAGMENT_DURATION_KEY = "app.recording.fragment.duration";
+    public static final String APP_RECORDING_FASTSTART_KEY = "app.recording.faststart";
+    public static final String APP_RECORDING_STREAM_KEY = "app.recording.stream";
 
     private ApplicationConfigurationPropertyKeys() {
         //
@@ -21,17 +21,24 @@ import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.NullOutputReceiver;
 import com.github.xsavikx.androidscreencast.api.AndroidDevice;
 import com.github.xsavikx.androidscreencast.api.AndroidDeviceImpl;
+import com.github.xsavikx.androidscreencast.api.capture.CaptureMode;
+import com.github.xsavikx.androidscreencast.api.capture.EncodedStreamSource;
+import com.github.xsavikx.androidscreencast.api.capture.FrameSource;
+import com.github.xsavikx.androidscreencast.api.capture.ScreenrecordStreamSource;
+import com.github.xsavikx.androidscreencast.api.capture.SelectingFrameSource;
 import com.github.xsavikx.androidscreencast.api.command.executor.CommandExecutor;
 import com.github.xsavikx.androidscreencast.api.command.executor.ShellCommandExecutor;
 import com.github.xsavikx.androidscreencast.api.command.factory.AdbInputCommandFactory;
 import com.github.xsavikx.androidscreencast.api.command.factory.InputCommandFactory;
 import com.github.xsavikx.androidscreencast.api.injector.MultiLineReceiverPrinter;
+import com.github.xsavikx.androidscreencast.api.recording.FrameRecorder;
 import com.github.xsavikx.androidscreencast.configuration.ApplicationConfiguration;
 import dagger.Module;
 import dagger.Provides;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.Locale;
 
 import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationProperty.*;
 import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.*;
@@ -65,6 +72,18 @@ public class ApiModule {
         return shellCommandExecutor;
     }
 
+    @Singleton
+    @Provides
+    public static FrameSource frameSource(SelectingFrameSource selectingFrameSource) {
+        return selectingFrameSource;
+    }
+
+    @Singleton
+    @Provides
+    public static EncodedStreamSource encodedStreamSource(ScreenrecordStreamSource screenrecordStreamSource) {
+        return screenrecordStreamSource;
+    }
+
     @Singleton
     @Provides
     public static AndroidDevice androidDevice(AndroidDeviceImpl androidDevice) {
@@ -84,6 +103,119 @@ public class ApiModule {
         return Boolean.valueOf(applicationConfiguration.getProperty(APP_DEBUG_ENABLED));
     }
 
+    @Singleton
+    @Named(APP_PARALLEL_CONVERSION_KEY)
+    @Provides
+    public static boolean isParallelConversionEnabled(ApplicationConfiguration applicationConfiguration) {
+        return Boolean.valueOf(applicationConfiguration.getProperty(APP_PARALLEL_CONVERSION));
+    }
+
+    @Singleton
+    @Named(APP_CAPTURE_FPS_KEY)
+    @Provides
+    public static int captureFps(ApplicationConfiguration applicationConfiguration) {
+        return Integer.valueOf(applicationConfiguration.getProperty(APP_CAPTURE_FPS));
+    }
+
+    @Singleton
+    @Named(APP_CAPTURE_IDLE_FPS_KEY)
+    @Provides
+    public static int captureIdleFps(ApplicationConfiguration applicationConfiguration) {
+        return Integer.valueOf(applicationConfiguration.getProperty(APP_CAPTURE_IDLE_FPS));
+    }
+
+    @Singleton
+    @Named(APP_CAPTURE_IN_FLIGHT_FRAMES_KEY)
+    @Provides
+    public static int captureInFlightFrames(ApplicationConfiguration applicationConfiguration) {
+        return Integer.valueOf(applicationConfiguration.getProperty(APP_CAPTURE_IN_FLIGHT_FRAMES));
+    }
+
+    @Singleton
+    @Named(APP_CAPTURE_KEEPALIVE_INTERVAL_KEY)
+    @Provides
+    public static long captureKeepAliveInterval(ApplicationConfiguration applicationConfiguration) {
+        return Long.valueOf(applicationConfiguration.getProperty(APP_CAPTURE_KEEPALIVE_INTERVAL));
+    }
+
+    @Singleton
+    @Named(APP_RECORDING_FPS_KEY)
+    @Provides
+    public static int recordingFps(ApplicationConfiguration applicationConfiguration) {
+        return Integer.valueOf(applicationConfiguration.getProperty(APP_RECORDING_FPS));
+    }
+
+    @Singleton
+    @Named(APP_CAPTURE_MODE_KEY)
+    @Provides
+    public static CaptureMode captureMode(ApplicationConfiguration applicationConfiguration) {
+        return CaptureMode.valueOf(applicationConfiguration.getProperty(APP_CAPTURE_MODE).trim().toUpperCase(Locale.ROOT));
+    }
+
+    @Singleton
+    @Named(APP_METRICS_LOG_INTERVAL_KEY)
+    @Provides
+    public static long metricsLogInterval(ApplicationConfiguration applicationConfiguration) {
+        return Long.valueOf(applicationConfiguration.getProperty(APP_METRICS_LOG_INTERVAL));
+    }
+
+    @Singleton
+    @Named(APP_STREAM_BIT_RATE_KEY)
+    @Provides
+    public static int streamBitRate(ApplicationConfiguration applicationConfiguration) {
+        return Integer.valueOf(applicationConfiguration.getProperty(APP_STREAM_BIT_RATE));
+    }
+
+    @Singleton
+    @Named(APP_RECORDING_QUEUE_SIZE_KEY)
+    @Provides
+    public static int recordingQueueSize(ApplicationConfiguration applicationConfiguration) {
+        return Integer.valueOf(applicationConfiguration.getProperty(APP_RECORDING_QUEUE_SIZE));
+    }
+
+    @Singleton
+    @Named(APP_RECORDING_BACKPRESSURE_KEY)
+    @Provides
+    public static FrameRecorder.BackpressurePolicy recordingBackpressurePolicy(ApplicationConfiguration applicationConfiguration) {
+        return FrameRecorder.BackpressurePolicy.valueOf(applicationConfiguration.getProperty(APP_RECORDING_BACKPRESSURE).trim().toUpperCase(Locale.ROOT));
+    }
+
+    @Singleton
+    @Named(APP_RECORDING_ENCODER_THREADS_KEY)
+    @Provides
+    public static int recordingEncoderThreads(ApplicationConfiguration applicationConfiguration) {
+        final int threads = Integer.valueOf(applicationConfiguration.getProperty(APP_RECORDING_ENCODER_THREADS));
+        return threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    @Singleton
+    @Named(APP_RECORDING_TIME_SCALE_KEY)
+    @Provides
+    public static int recordingTimeScale(ApplicationConfiguration applicationConfiguration) {
+        return Integer.valueOf(applicationConfiguration.getProperty(APP_RECORDING_TIME_SCALE));
+    }
+
+    @Singleton
+    @Named(APP_RECORDING_FRAGMENT_DURATION_KEY)
+    @Provides
+    public static int recordingFragmentDuration(ApplicationConfiguration applicationConfiguration) {
+        return Integer.valueOf(applicationConfiguration.getProperty(APP_RECORDING_FRAGMENT_DURATION));
+    }
+
+    @Singleton
+    @Named(APP_RECORDING_FASTSTART_KEY)
+    @Provides
+    public static boolean isRecordingFastStartEnabled(ApplicationConfiguration applicationConfiguration) {
+        return Boolean.valueOf(applicationConfiguration.getProperty(APP_RECORDING_FASTSTART));
+    }
+
+    @Singleton
+    @Named(APP_RECORDING_STREAM_KEY)
+    @Provides
+    public static boolean isStreamRecordingEnabled(ApplicationConfiguration applicationConfiguration) {
+        return Boolean.valueOf(applicationConfiguration.getProperty(APP_RECORDING_STREAM));
+    }
+
     @Singleton
     @Provides
     public static IShellOutputReceiver iShellOutputReceiver(@Named(APP_DEBUG_ENABLED_KEY) boolean isDebugEnabled, MultiLineReceiverPrinter multiLineReceiverPrinter) {
@@ -26,6 +26,7 @@ import dagger.Provides;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_METRICS_OVERLAY_KEY;
 import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_WINDOW_HEIGHT_KEY;
 import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_WINDOW_WIDTH_KEY;
 
@@ -45,6 +46,13 @@ public class UiModule {
         return Integer.valueOf(applicationConfiguration.getProperty(ApplicationConfigurationProperty.APP_WINDOW_WIDTH));
     }
 
+    @Singleton
+    @Named(APP_METRICS_OVERLAY_KEY)
+    @Provides
+    public static boolean isMetricsOverlayEnabled(final ApplicationConfiguration applicationConfiguration) {
+        return Boolean.valueOf(applicationConfiguration.getProperty(ApplicationConfigurationProperty.APP_METRICS_OVERLAY));
+    }
+
     @Singleton
     @Provides
     public static InputKeyEvent[] initialData() {
@@ -19,12 +19,18 @@ package com.github.xsavikx.androidscreencast.ui;
 
 import com.github.xsavikx.androidscreencast.api.injector.Injector;
 import com.github.xsavikx.androidscreencast.api.injector.InputKeyEvent;
+import com.github.xsavikx.androidscreencast.api.injector.ScreenCaptureRunnable;
+import com.github.xsavikx.androidscreencast.api.metrics.FrameMetrics;
+import com.github.xsavikx.androidscreencast.api.metrics.FrameStage;
+import com.github.xsavikx.androidscreencast.api.metrics.InputLatencyProbe;
+import com.github.xsavikx.androidscreencast.api.metrics.LatencyHistogram;
 import com.github.xsavikx.androidscreencast.dagger.MainComponentProvider;
 import com.github.xsavikx.androidscreencast.exception.IORuntimeException;
 import com.github.xsavikx.androidscreencast.ui.explorer.JFrameExplorer;
 import com.github.xsavikx.androidscreencast.ui.interaction.KeyEventDispatcherFactory;
 import com.github.xsavikx.androidscreencast.ui.interaction.KeyboardActionListenerFactory;
 import com.github.xsavikx.androidscreencast.ui.interaction.MouseActionAdapter;
+import com.github.xsavikx.androidscreencast.ui.worker.SwingWorker;
 import com.google.common.io.Files;
 
 import javax.inject.Inject;
@@ -35,10 +41,21 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_METRICS_OVERLAY_KEY;
 import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_WINDOW_HEIGHT_KEY;
 import static com.github.xsavikx.androidscreencast.configuration.ApplicationConfigurationPropertyKeys.APP_WINDOW_WIDTH_KEY;
 
@@ -46,13 +63,17 @@ import static com.github.xsavikx.androidscreencast.configuration.ApplicationConf
 public final class JFrameMain extends JFrame {
 
     private static final long serialVersionUID = -2085909236767692371L;
+    private static final int METRICS_OVERLAY_REFRESH_MILLIS = 1000;
     private final JPanelScreen jp;
     private final MouseActionAdapter ma;
     private final Injector injector;
     private final Dimension windowSize;
     private final JFrameExplorer frameExplorer;
     private final JDialogExecuteKeyEvent dialogExecuteKeyEvent;
+    private final transient FrameMetrics metrics;
+    private final transient InputLatencyProbe inputLatencyProbe;
     private transient boolean isDisposed = false;
+    private transient FrameMetrics.Sampler metricsSampler;
 
     private final JToolBar jtb = new JToolBar();
     private final JToolBar jtbHardkeys = new JToolBar();
@@ -68,6 +89,9 @@ public final class JFrameMain extends JFrame {
     private final JButton jbKbPhoneOn = new JButton("Call");
     private final JButton jbKbPhoneOff = new JButton("End call");
     private final JButton jbRecord = new JButton("Start record");
+    private final JToggleButton jbMetrics = new JToggleButton("Stats");
+    private final JToggleButton jbLatencyProbe = new JToggleButton("Latency probe");
+    private final Timer metricsOverlayTimer = new Timer(METRICS_OVERLAY_REFRESH_MILLIS, e -> refreshMetricsOverlay());
     private Dimension oldImageDimension;
 
     @Inject
@@ -76,14 +100,20 @@ public final class JFrameMain extends JFrame {
                MouseActionAdapter ma,
                JFrameExplorer frameExplorer,
                JDialogExecuteKeyEvent dialogExecuteKeyEvent,
+               FrameMetrics metrics,
+               InputLatencyProbe inputLatencyProbe,
                @Named(APP_WINDOW_WIDTH_KEY) int width,
-               @Named(APP_WINDOW_HEIGHT_KEY) int height) {
+               @Named(APP_WINDOW_HEIGHT_KEY) int height,
+               @Named(APP_METRICS_OVERLAY_KEY) boolean showMetrics) {
         this.jp = jp;
         this.injector = injector;
         this.ma = ma;
         this.frameExplorer = frameExplorer;
         this.dialogExecuteKeyEvent = dialogExecuteKeyEvent;
+        this.metrics = metrics;
+        this.inputLatencyProbe = inputLatencyProbe;
         this.windowSize = new Dimension(width, height);
+        this.jbMetrics.setSelected(showMetrics);
     }
 
     @Override
@@ -92,6 +122,7 @@ public final class JFrameMain extends JFrame {
             return;
         }
         isDisposed = true;
+        metricsOverlayTimer.stop();
         super.dispose();
         MainComponentProvider.mainComponent().application().stop();
     }
@@ -110,6 +141,8 @@ public final class JFrameMain extends JFrame {
         jbKbPhoneOff.setFocusable(false);
         jbExecuteKeyEvent.setFocusable(false);
         jbRecord.setFocusable(false);
+        jbMetrics.setFocusable(false);
+        jbLatencyProbe.setFocusable(false);
         jbKbAppSwitch.setFocusable(false);
         jbKbAssist.setFocusable(false);
 
@@ -145,6 +178,28 @@ public final class JFrameMain extends JFrame {
         jp.addMouseMotionListener(ma);
         jp.addMouseListener(ma);
         jp.addMouseWheelListener(ma);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowIconified(WindowEvent e) {
+                injector.pause();
+            }
+
+            @Override
+            public void windowDeiconified(WindowEvent e) {
+                injector.resume();
+            }
+        });
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentHidden(ComponentEvent e) {
+                injector.pause();
+            }
+
+            @Override
+            public void componentShown(ComponentEvent e) {
+                injector.resume();
+            }
+        });
 
         jbExplorer.addActionListener(actionEvent -> {
             SwingUtilities.invokeLater(() -> {
@@ -162,6 +217,46 @@ public final class JFrameMain extends JFrame {
 
         jtb.add(jbExecuteKeyEvent);
         jtb.add(jbRecord);
+
+        jbMetrics.addActionListener(actionEvent -> toggleMetricsOverlay());
+        jtb.add(jbMetrics);
+        toggleMetricsOverlay();
+
+        // while the probe is on, every click on the screen is a measured tap
+        jbLatencyProbe.setToolTipText("Measure the time from a tap until the screen changes around the tapped point");
+        jbLatencyProbe.addActionListener(actionEvent -> inputLatencyProbe.setEnabled(jbLatencyProbe.isSelected()));
+        jtb.add(jbLatencyProbe);
+    }
+
+    private void toggleMetricsOverlay() {
+        if (jbMetrics.isSelected()) {
+            metricsSampler = metrics.newSampler();
+            metricsOverlayTimer.start();
+        } else {
+            metricsOverlayTimer.stop();
+            jp.setOverlay(Collections.emptyList());
+        }
+    }
+
+    private void refreshMetricsOverlay() {
+        final FrameMetrics.Report report = metricsSampler.sample();
+        final List<String> lines = new ArrayList<>();
+        lines.add(String.format("%.1f fps (fetch %.1f fps), %d dropped", report.getDisplayFps(), report.getFetchFps(), report.getDroppedFrames()));
+        for (FrameStage stage : FrameStage.values()) {
+            final LatencyHistogram.Snapshot latencies = report.getLatencies(stage);
+            if (latencies.getCount() > 0) {
+                lines.add(String.format("%s: p50 %.1f ms, p99 %.1f ms", stage.getLabel(),
+                        toMillis(latencies.getValueAtPercentile(50)), toMillis(latencies.getValueAtPercentile(99))));
+            }
+        }
+        if (inputLatencyProbe.isEnabled()) {
+            lines.add(inputLatencyProbe.describe());
+        }
+        jp.setOverlay(lines);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
     }
 
     private void setPreferredWindowSize() {
@@ -185,41 +280,94 @@ public final class JFrameMain extends JFrame {
                         startRecording(tmpVideoFile);
                     } else {
                         recording = false;
+                        finishRecording(tmpVideoFile);
+                    }
+                } catch (IOException ex) {
+                    throw new IORuntimeException(ex);
+                }
+            }
+
+            /**
+             * Stops the recording in the background: the encoders have to catch up and the movie may be rewritten as a whole, which would
+             * freeze the UI. The file can be saved once the movie is finished.
+             */
+            private void finishRecording(final File videoFile) {
+                jbRecord.setEnabled(false);
+                jbRecord.setText("Saving record...");
+                new SwingWorker<Void, Void>() {
+                    @Override
+                    protected Void doInBackground() {
                         stopRecording();
+                        return null;
+                    }
+
+                    @Override
+                    protected void done() {
                         jbRecord.setText("Start record");
-                        JFileChooser jFileChooser = new JFileChooser();
-                        FileNameExtensionFilter filter = new FileNameExtensionFilter("Video file", "mov");
-                        jFileChooser.setFileFilter(filter);
-                        int returnVal = jFileChooser.showSaveDialog(JFrameMain.this);
-                        if (returnVal == JFileChooser.APPROVE_OPTION) {
-                            File resultFile = jFileChooser.getSelectedFile();
-                            if (!resultFile.getName().endsWith(".mov")) {
-                                resultFile = new File(resultFile.getAbsolutePath() + ".mov");
-                            }
-                            Files.move(tmpVideoFile, resultFile);
-                        } else {
-                            tmpVideoFile.deleteOnExit();
+                        jbRecord.setEnabled(true);
+                        try {
+                            get();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (ExecutionException ex) {
+                            JOptionPane.showMessageDialog(JFrameMain.this, "Failed to finish the record: " + ex.getCause().getMessage(),
+                                    "Record", JOptionPane.ERROR_MESSAGE);
+                            videoFile.deleteOnExit();
+                            return;
                         }
+                        saveRecording(videoFile);
                     }
-                } catch (IOException ex) {
-                    throw new IORuntimeException(ex);
+                }.execute();
+            }
+
+            private void saveRecording(final File videoFile) {
+                JFileChooser jFileChooser = new JFileChooser();
+                FileNameExtensionFilter filter = new FileNameExtensionFilter("Video file", "mov");
+                jFileChooser.setFileFilter(filter);
+                int returnVal = jFileChooser.showSaveDialog(JFrameMain.this);
+                if (returnVal == JFileChooser.APPROVE_OPTION) {
+                    File resultFile = jFileChooser.getSelectedFile();
+                    if (!resultFile.getName().endsWith(".mov")) {
+                        resultFile = new File(resultFile.getAbsolutePath() + ".mov");
+                    }
+                    try {
+                        Files.move(videoFile, resultFile);
+                    } catch (IOException ex) {
+                        throw new IORuntimeException(ex);
+                    }
+                } else {
+                    videoFile.deleteOnExit();
                 }
             }
         };
     }
 
     public void launchInjector() {
-        injector.setScreenCaptureListener((size, image, landscape) -> {
-            if (!size.equals(oldImageDimension)) {
-                jsp.setPreferredSize(size);
-                JFrameMain.this.pack();
-                oldImageDimension = size;
+        injector.setScreenCaptureListener(new ScreenCaptureRunnable.ScreenCaptureListener() {
+            @Override
+            public void handleNewImage(Dimension size, BufferedImage image, boolean landscape) {
+                resizeTo(size);
+                jp.handleNewImage(size, image);
+            }
+
+            @Override
+            public void handleNewImage(Dimension size, BufferedImage image, boolean landscape, List<Rectangle> dirtyRegions) {
+                resizeTo(size);
+                jp.handleNewImage(size, image, dirtyRegions);
             }
-            jp.handleNewImage(size, image);
         });
         injector.start();
     }
 
+    private void resizeTo(Dimension size) {
+        if (!size.equals(oldImageDimension)) {
+            jsp.setPreferredSize(size);
+            JFrameMain.this.pack();
+            oldImageDimension = size;
+        }
+    }
+
     private void startRecording(File file) {
         injector.startRecording(file);
     }
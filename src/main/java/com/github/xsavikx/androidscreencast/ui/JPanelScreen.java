@@ -17,24 +17,33 @@
 
 package com.github.xsavikx.androidscreencast.ui;
 
+import com.github.xsavikx.androidscreencast.api.metrics.FrameMetrics;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
 
 @Singleton
 public final class JPanelScreen extends JPanel {
 
     private static final long serialVersionUID = -2034873107028503004L;
+    private static final int OVERLAY_MARGIN = 4;
+    private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 160);
+    private final transient FrameMetrics metrics;
     private float coef = 1;
     private double origX;
     private double origY;
     private Dimension size = null;
     private BufferedImage image = null;
+    private List<String> overlay = Collections.emptyList();
 
     @Inject
-    JPanelScreen() {
+    JPanelScreen(final FrameMetrics metrics) {
+        this.metrics = metrics;
         setFocusable(true);
     }
 
@@ -51,10 +60,39 @@ public final class JPanelScreen extends JPanel {
         repaint();
     }
 
+    /**
+     * Shows the new image, repainting only the regions which differ from the previous one.
+     *
+     * @param dirtyRegions changed regions in image coordinates
+     */
+    void handleNewImage(final Dimension size, final BufferedImage image, final List<Rectangle> dirtyRegions) {
+        final boolean sameGeometry = this.image != null && this.image.getWidth() == image.getWidth() && this.image.getHeight() == image.getHeight();
+        this.size = size;
+        this.image = image;
+        if (!sameGeometry || isNotInitialized()) {
+            repaint();
+            return;
+        }
+        for (Rectangle region : dirtyRegions) {
+            // one extra pixel on every side covers the rounding of the scaled image bounds
+            repaint((int) (origX + region.x * coef) - 1, (int) (origY + region.y * coef) - 1,
+                    (int) Math.ceil(region.width * coef) + 2, (int) Math.ceil(region.height * coef) + 2);
+        }
+    }
+
+    /**
+     * Shows the given lines of text over the top left corner of the screen, or hides the overlay if there are none.
+     */
+    void setOverlay(final List<String> overlay) {
+        this.overlay = overlay;
+        repaint();
+    }
+
     @Override
     protected void paintComponent(final Graphics g) {
         if (isNotInitialized())
             return;
+        final long paintStart = System.nanoTime();
         final Graphics2D g2 = (Graphics2D) g;
         g2.clearRect(0, 0, getWidth(), getHeight());
         final double width = Math.min(getWidth(), size.width * getHeight() / size.height);
@@ -63,6 +101,27 @@ public final class JPanelScreen extends JPanel {
         origX = (getWidth() - width) / 2;
         origY = (getHeight() - height) / 2;
         g2.drawImage(image, (int) origX, (int) origY, (int) width, (int) height, this);
+        paintOverlay(g2);
+        metrics.framePainted(paintStart);
+    }
+
+    private void paintOverlay(final Graphics2D g2) {
+        if (overlay.isEmpty()) {
+            return;
+        }
+        final FontMetrics fontMetrics = g2.getFontMetrics();
+        int overlayWidth = 0;
+        for (String line : overlay) {
+            overlayWidth = Math.max(overlayWidth, fontMetrics.stringWidth(line));
+        }
+        g2.setColor(OVERLAY_BACKGROUND);
+        g2.fillRect(0, 0, overlayWidth + 2 * OVERLAY_MARGIN, overlay.size() * fontMetrics.getHeight() + 2 * OVERLAY_MARGIN);
+        g2.setColor(Color.WHITE);
+        int baseline = OVERLAY_MARGIN + fontMetrics.getAscent();
+        for (String line : overlay) {
+            g2.drawString(line, OVERLAY_MARGIN, baseline);
+            baseline += fontMetrics.getHeight();
+        }
     }
 
     private boolean isNotInitialized() {
@@ -23,6 +23,7 @@ import com.github.xsavikx.androidscreencast.api.command.TapCommand;
 import com.github.xsavikx.androidscreencast.api.command.executor.CommandExecutor;
 import com.github.xsavikx.androidscreencast.api.command.factory.InputCommandFactory;
 import com.github.xsavikx.androidscreencast.api.injector.Injector;
+import com.github.xsavikx.androidscreencast.api.metrics.InputLatencyProbe;
 import com.github.xsavikx.androidscreencast.ui.JPanelScreen;
 
 import javax.inject.Inject;
@@ -42,6 +43,7 @@ public final class MouseActionAdapter extends MouseAdapter {
     private final CommandExecutor commandExecutor;
     private final InputCommandFactory inputCommandFactory;
     private final Injector injector;
+    private final InputLatencyProbe inputLatencyProbe;
     private int dragFromX = -1;
     private int dragFromY = -1;
     private long timeFromPress = -1;
@@ -51,11 +53,13 @@ public final class MouseActionAdapter extends MouseAdapter {
     MouseActionAdapter(final JPanelScreen jp,
                        final CommandExecutor commandExecutor,
                        final InputCommandFactory inputCommandFactory,
-                       final Injector injector) {
+                       final Injector injector,
+                       final InputLatencyProbe inputLatencyProbe) {
         this.jp = jp;
         this.commandExecutor = commandExecutor;
         this.inputCommandFactory = inputCommandFactory;
         this.injector = injector;
+        this.inputLatencyProbe = inputLatencyProbe;
     }
 
 
@@ -69,6 +73,11 @@ public final class MouseActionAdapter extends MouseAdapter {
         if(e.getButton() == MouseEvent.BUTTON3) return;
         final Point p2 = jp.getRawPoint(e.getPoint());
         if (p2.x > 0 && p2.y > 0) {
+            if (inputLatencyProbe.isEnabled()) {
+                // the probe sends the tap itself to know when it was sent
+                inputLatencyProbe.measure(p2.x, p2.y);
+                return;
+            }
             SwingUtilities.invokeLater(() -> {
                 final TapCommand command = inputCommandFactory.getTapCommand(p2.x, p2.y);
                 commandExecutor.execute(command);